@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the whole launch check for a returning user: registering the
+ * licenses, reading the marker and launching the application. Gate is used
+ * rather than Viewer so that the benchmark runs without a display.
+ *
+ * @author Matthew MacGregor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GateBenchmark {
+
+    @Param({"1", "40", "400"})
+    public int licenseCount;
+
+    @Setup(Level.Trial)
+    public void acceptLicenses() throws IOException {
+        dir = Files.createTempDirectory("eula-bench");
+        path = dir.resolve("marker").toString();
+        Marker marker = new Marker(path);
+        for (int i = 0; i < licenseCount; i++) {
+            marker.put("license." + i);
+        }
+        marker.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteMarker() throws IOException {
+        MarkerBenchmark.delete(dir);
+    }
+
+    @Benchmark
+    public boolean start() {
+        final boolean[] isLaunched = new boolean[1];
+        Gate gate = new Gate(path, new Launchable() {
+            @Override
+            public void launchApplication(boolean isEulaAccepted, String[] args) {
+                isLaunched[0] = isEulaAccepted;
+            }
+        });
+        for (int i = 0; i < licenseCount; i++) {
+            gate.addLicense("license." + i, "/license.txt");
+        }
+        gate.start();
+        return isLaunched[0];
+    }
+
+    private Path dir;
+    private String path;
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures loading license resources of different sizes. The resources are
+ * generated next to the benchmark classes, so the benchmarks must be run from
+ * a classes directory rather than a jar.
+ *
+ * @author Matthew MacGregor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LicenseBenchmark {
+
+    /* Size of the license in bytes: 10 KB, 1 MB and 10 MB. */
+    @Param({"10240", "1048576", "10485760"})
+    public int size;
+
+    /* True to store the license gzip compressed, as -compress-licenses does. */
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    @Setup(Level.Trial)
+    public void createLicense() throws IOException, URISyntaxException {
+        Path root = Paths.get(LicenseBenchmark.class.getProtectionDomain()
+                .getCodeSource().getLocation().toURI());
+        String name = "eula-bench-" + size + ".txt";
+        file = root.resolve(compressed ? name + ".gz" : name);
+
+        byte[] line = LINE.getBytes(StandardCharsets.UTF_8);
+        byte[] text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            text[i] = line[i % line.length];
+        }
+        if (compressed) {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+                out.write(text);
+            }
+        } else {
+            Files.write(file, text);
+        }
+        license = new License("bench", "/" + name);
+        // Measure reading the resource, not the LicenseCache.
+        budget = LicenseCache.getByteBudget();
+        LicenseCache.setByteBudget(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLicense() throws IOException {
+        LicenseCache.setByteBudget(budget);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String read() {
+        return license.read();
+    }
+
+    @Benchmark
+    public void readChunked(final Blackhole blackhole) throws IOException {
+        license.read(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                blackhole.consume(cbuf);
+            }
+
+            @Override
+            public Writer append(CharSequence csq, int start, int end) {
+                blackhole.consume(csq);
+                return this;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    private static final String LINE =
+            "Permission is hereby granted, free of charge, to any person obtaining a copy\n";
+
+    private License license;
+    private Path file;
+    private long budget;
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTextArea;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap held while a set of large licenses is shown one after
+ * another, the way the Viewer shows them, with and without the low-memory
+ * mode (see Viewer.Config.LOW_MEMORY). The low-memory run is forked with
+ * half the 64 MB heap of a small launcher, and fails with an
+ * OutOfMemoryError if it no longer fits; the default run needs more than
+ * 40 MB.
+ *
+ * The default run indexes every license for the find bar, while the
+ * low-memory run only indexes those that fit its budget, which none of these
+ * licenses do. With isIndexed false neither run indexes, so the two are
+ * compared on the text alone.
+ *
+ * After each license the heap is collected and measured, and the largest
+ * result is reported as retainedHeapMegabytes. The collections are part of
+ * the time of each operation. Counters add up over iterations, so there's a
+ * single measurement iteration.
+ *
+ * @author Matthew MacGregor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 1, time = 5)
+public class LowMemoryBenchmark {
+
+    @Param({"true", "false"})
+    public boolean isIndexed;
+
+    @Setup(Level.Trial)
+    public void createLicenses() throws IOException {
+        directory = Files.createTempDirectory("eula-bench");
+        licenses = new ArrayList<>(LICENSES);
+        for (int i = 0; i < LICENSES; i++) {
+            Path file = directory.resolve("license-" + i + ".txt");
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (int written = 0, line = 0; written < SIZE; line++) {
+                    String text = "Section " + line + ". " + LINES[line % LINES.length];
+                    out.write(text);
+                    written += text.length();
+                }
+            }
+            licenses.add(new License("license." + i, new FileLicenseSource(file), null));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLicenses() throws IOException {
+        for (int i = 0; i < LICENSES; i++) {
+            Files.deleteIfExists(directory.resolve("license-" + i + ".txt"));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearCache() {
+        LicenseCache.clear();
+    }
+
+    /**
+     * Shows every license as the Viewer does in low-memory mode: a chunked
+     * document replaced for each license, text read straight into it and
+     * left out of the cache, and no index unless it fits the budget or
+     * isIndexed is false.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgs = {"-Xmx32m", "-Djava.awt.headless=true"})
+    public JTextArea lowMemory(Peak peak) throws IOException {
+        JTextArea textArea = createTextArea();
+        for (License license : licenses) {
+            textArea.setDocument(new ChunkedDocument());
+            Chunks chunks = new Chunks(textArea);
+            license.read(chunks, false);
+            chunks.flush();
+            if (isIndexed
+                    && LicenseIndex.estimateBytes(textArea.getDocument().getLength()) <= BUDGET) {
+                LicenseIndex.build(((ChunkedDocument) textArea.getDocument()).snapshot());
+            }
+            peak.record();
+        }
+        textArea.setDocument(new ChunkedDocument());
+        peak.record();
+        return textArea;
+    }
+
+    /**
+     * Shows every license as the Viewer does by default: the text area is
+     * emptied for each license, the next license is read ahead while the
+     * current one is shown, and every license is indexed unless isIndexed is
+     * false.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgs = {"-Xmx512m", "-Djava.awt.headless=true"})
+    public JTextArea standard(Peak peak) throws IOException {
+        JTextArea textArea = createTextArea();
+        String next = licenses.get(0).read();
+        for (int i = 0; i < licenses.size(); i++) {
+            textArea.setText("");
+            String text = next;
+            for (int start = 0; start < text.length(); start += CHUNK_SIZE) {
+                textArea.append(text.substring(start, Math.min(text.length(), start + CHUNK_SIZE)));
+            }
+            text = null;
+            next = (i + 1 < licenses.size()) ? licenses.get(i + 1).read() : null;
+            if (isIndexed) {
+                LicenseIndex.build(textArea.getText());
+            }
+            peak.record();
+        }
+        textArea.setText("");
+        peak.record();
+        return textArea;
+    }
+
+    private static JTextArea createTextArea() {
+        JTextArea textArea = new JTextArea();
+        textArea.setEditable(false);
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        WrapView.install(textArea);
+        return textArea;
+    }
+
+    /**
+     * The most heap held after a collection during the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Peak {
+
+        public long retainedHeapMegabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedHeapMegabytes = 0;
+        }
+
+        void record() {
+            System.gc();
+            long used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    used += pool.getUsage().getUsed();
+                }
+            }
+            retainedHeapMegabytes = Math.max(retainedHeapMegabytes, used / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Appends the text to the text area in chunks, as the Viewer's loader
+     * does.
+     */
+    private static final class Chunks implements Appendable {
+
+        Chunks(JTextArea textArea) {
+            this.textArea = textArea;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            pending.append(csq, start, end);
+            if (pending.length() >= CHUNK_SIZE) {
+                flush();
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            pending.append(c);
+            return this;
+        }
+
+        void flush() {
+            textArea.append(pending.toString());
+            pending.setLength(0);
+        }
+
+        private final JTextArea textArea;
+        private final StringBuilder pending = new StringBuilder(CHUNK_SIZE);
+    }
+
+    /* Eight licenses of 4 MB each, more than the 64 MB heap can hold. */
+    private static final int LICENSES = 8;
+    private static final int SIZE = 4 * 1024 * 1024;
+    /* The default low-memory budget of the Viewer. */
+    private static final long BUDGET = 4 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String[] LINES = {
+        "THE SOFTWARE IS PROVIDED \"AS IS\", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR\n",
+        "IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,\n",
+        "FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE\n",
+        "Permission is hereby granted, free of charge, to any person obtaining a copy\n"
+    };
+
+    private Path directory;
+    private List<License> licenses;
+}
@@ -0,0 +1,365 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading and committing the marker file. Reads are measured for
+ * each file format the marker can be found in, named by version: v1 and v2
+ * are the serialized maps, v3 and v4 the binary format without and with
+ * digests, v4 being the current one. Commits are measured for v4.
+ * The write benchmark compares the v2 format with the current one, writing
+ * the encoded map without the locking and syncing of a commit, and reports
+ * the size of the file as fileBytes.
+ *
+ * The shared benchmarks measure the throughput of one Marker used by several
+ * threads at once, as in a server that embeds the library: sharedRead has
+ * four threads query committed keys, and the readWrite group has three
+ * threads query while a fourth puts keys, each put publishing a new snapshot
+ * to the readers.
+ *
+ * @author Matthew MacGregor
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkerBenchmark {
+
+    /**
+     * A marker file in one of the formats.
+     */
+    @State(Scope.Thread)
+    public static class ReadState {
+
+        @Param({"v1", "v2", "v3", "v4"})
+        public String format;
+
+        @Param({"1", "100", "10000", "100000"})
+        public int keyCount;
+
+        @Setup(Level.Trial)
+        public void createMarker() throws IOException {
+            dir = Files.createTempDirectory("eula-bench");
+            file = dir.resolve("marker");
+            HashMap<String, Integer> map = keys(keyCount);
+
+            byte[] bytes;
+            switch (format) {
+                case "v1":
+                    bytes = serialize(map);
+                    break;
+                case "v2":
+                    bytes = Base64.getEncoder().encode(serialize(map));
+                    break;
+                case "v3":
+                    bytes = encodeV3(map);
+                    break;
+                default:
+                    Marker marker = new Marker(file.toString());
+                    for (String key : map.keySet()) {
+                        marker.put(key);
+                    }
+                    bytes = marker.encode();
+                    break;
+            }
+            Files.write(file, bytes);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteMarker() throws IOException {
+            delete(dir);
+        }
+
+        Path file;
+        private Path dir;
+    }
+
+    /**
+     * A marker holding keyCount keys, committed again on every invocation.
+     * One key is put again first, since a commit with nothing to write
+     * doesn't touch the file.
+     */
+    @State(Scope.Thread)
+    public static class WriteState {
+
+        @Param({"1", "100", "10000", "100000"})
+        public int keyCount;
+
+        @Setup(Level.Trial)
+        public void createMarker() throws IOException {
+            dir = Files.createTempDirectory("eula-bench");
+            marker = new Marker(dir.resolve("marker").toString());
+            for (String key : keys(keyCount).keySet()) {
+                marker.put(key);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteMarker() throws IOException {
+            delete(dir);
+        }
+
+        Marker marker;
+        private Path dir;
+    }
+
+    /**
+     * A fresh Marker parses the file. Older formats are upgraded when a
+     * Marker loads them, which isn't included, so the file is read as it was
+     * written in every invocation. The whole launch check is measured by
+     * GateBenchmark.
+     */
+    @Benchmark
+    public int read(ReadState state) {
+        return new Marker(state.file.toString()).readAnyVersion(state.file.toFile());
+    }
+
+    /**
+     * A map of keyCount keys, to be encoded in the v2 format or the current
+     * one (v4).
+     */
+    @State(Scope.Thread)
+    public static class FormatState {
+
+        @Param({"v2", "v4"})
+        public String format;
+
+        @Param({"1", "100", "10000", "100000"})
+        public int keyCount;
+
+        @Setup(Level.Trial)
+        public void createMarker() throws IOException {
+            dir = Files.createTempDirectory("eula-bench");
+            file = dir.resolve("marker");
+            map = keys(keyCount);
+            marker = new Marker(file.toString());
+            for (String key : map.keySet()) {
+                marker.put(key);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteMarker() throws IOException {
+            delete(dir);
+        }
+
+        byte[] encode() throws IOException {
+            return "v2".equals(format)
+                    ? Base64.getEncoder().encode(serialize(map))
+                    : marker.encode();
+        }
+
+        Path file;
+        private Path dir;
+        private HashMap<String, Integer> map;
+        private Marker marker;
+    }
+
+    /**
+     * The size of the file written by the last invocation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FileSize {
+
+        public long fileBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            fileBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean commit(WriteState state) {
+        state.marker.put(KEY_PREFIX + 0);
+        return state.marker.commit();
+    }
+
+    /**
+     * Encodes the map and writes it to the file. Counters add up over
+     * iterations, so there's a single measurement iteration.
+     */
+    @Benchmark
+    @Measurement(iterations = 1, time = 5)
+    public void write(FormatState state, FileSize size) throws IOException {
+        byte[] bytes = state.encode();
+        Files.write(state.file, bytes);
+        size.fileBytes = bytes.length;
+    }
+
+    /**
+     * A marker holding keyCount committed keys, shared by every thread of a
+     * benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedState {
+
+        @Param({"100", "100000"})
+        public int keyCount;
+
+        @Setup(Level.Trial)
+        public void createMarker() throws IOException {
+            dir = Files.createTempDirectory("eula-bench");
+            marker = new Marker(dir.resolve("marker").toString());
+            keys = keys(keyCount).keySet().toArray(new String[0]);
+            // One snapshot for all of them, rather than one per key.
+            HashMap<String, String> accepted = new HashMap<>();
+            for (String key : keys) {
+                accepted.put(key, null);
+            }
+            marker.putAll(accepted);
+            marker.commit();
+            written = new String[WRITTEN_KEYS];
+            for (int i = 0; i < written.length; i++) {
+                written[i] = "written." + i;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteMarker() throws IOException {
+            delete(dir);
+        }
+
+        Marker marker;
+        /* The committed keys, which the readers query. */
+        String[] keys;
+        /* The keys the writer puts, over and over without committing. */
+        String[] written;
+        private Path dir;
+    }
+
+    /**
+     * Where each thread is in the keys it goes through.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next(int count) {
+            position = (position + 1) % count;
+            return position;
+        }
+
+        private int position;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public boolean sharedRead(SharedState state, Cursor cursor) {
+        return state.marker.isEulaAccepted(state.keys[cursor.next(state.keys.length)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Group("readWrite")
+    @GroupThreads(3)
+    public boolean readWhileWriting(SharedState state, Cursor cursor) {
+        return state.marker.isEulaAccepted(state.keys[cursor.next(state.keys.length)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writeWhileReading(SharedState state, Cursor cursor) {
+        state.marker.put(state.written[cursor.next(state.written.length)]);
+    }
+
+    private static HashMap<String, Integer> keys(int count) {
+        HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(KEY_PREFIX + i, ACCEPTED);
+        }
+        return map;
+    }
+
+    private static byte[] serialize(HashMap<String, Integer> map) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
+            os.writeObject(map);
+        }
+        return baos.toByteArray();
+    }
+
+    /* The binary format with version byte 3, which has no digests. */
+    private static byte[] encodeV3(HashMap<String, Integer> map) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeBytes("EULA");
+            out.writeByte(3);
+            out.writeInt(map.size());
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private static final String KEY_PREFIX = "license.";
+    /* Number of keys put in the readWrite group, a few licenses' worth. */
+    private static final int WRITTEN_KEYS = 16;
+    /* Same value as Marker's EULA_ACCEPTED. */
+    private static final int ACCEPTED = 1010;
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.JTextArea;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the frame time of the license text area while it's resized and
+ * scrolled, with the line-wrap layout cache of WrapView and with the plain
+ * Swing wrapped view. A frame lays the text out at the new width, as the
+ * scroll pane does, and paints one viewport.
+ *
+ * @author Matthew MacGregor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx1g", "-Djava.awt.headless=true"})
+public class WrapViewBenchmark {
+
+    /* Length of the license in chars: 1 MB and 10 MB. */
+    @Param({"1048576", "10485760"})
+    public int size;
+
+    /* Whether WrapView is installed. */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    @Setup(Level.Trial)
+    public void createTextArea() {
+        StringBuilder text = new StringBuilder(size + 1024);
+        for (int i = 0; text.length() < size; i++) {
+            text.append("Section ").append(i).append(". ")
+                    .append(PARAGRAPHS[i % PARAGRAPHS.length]).append("\n\n");
+        }
+        textArea = new JTextArea();
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        if (cached) {
+            WrapView.install(textArea);
+        }
+        textArea.setText(text.toString());
+        layout(WIDTHS[0]);
+        image = new BufferedImage(WIDTHS[WIDTHS.length - 1], VIEWPORT_HEIGHT,
+                BufferedImage.TYPE_INT_RGB);
+        frame = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void disposeTextArea() {
+        textArea = null;
+        image = null;
+    }
+
+    /**
+     * Drags the window edge back and forth, keeping the viewport in the
+     * middle of the text.
+     */
+    @Benchmark
+    public BufferedImage resize() {
+        int width = WIDTHS[frame++ % WIDTHS.length];
+        layout(width);
+        return paint(width, textArea.getHeight() / 2);
+    }
+
+    /**
+     * Scrolls down one viewport at a time, starting over at the end.
+     */
+    @Benchmark
+    public BufferedImage scroll() {
+        int y = (frame++ * VIEWPORT_HEIGHT) % Math.max(1, textArea.getHeight() - VIEWPORT_HEIGHT);
+        return paint(WIDTHS[0], y);
+    }
+
+    private void layout(int width) {
+        textArea.setSize(width, textArea.getHeight());
+        textArea.setSize(width, textArea.getPreferredSize().height);
+    }
+
+    private BufferedImage paint(int width, int y) {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.translate(0, -y);
+            g.setClip(0, y, width, VIEWPORT_HEIGHT);
+            textArea.paint(g);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /* Widths of the text area while resizing, in pixels. */
+    private static final int[] WIDTHS = {480, 488, 500, 520, 560, 520, 500, 488};
+    private static final int VIEWPORT_HEIGHT = 300;
+
+    private static final String[] PARAGRAPHS = {
+        "THE SOFTWARE IS PROVIDED \"AS IS\", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR "
+            + "IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, "
+            + "FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE "
+            + "AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER "
+            + "LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, "
+            + "OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN "
+            + "THE SOFTWARE.",
+        "Permission is hereby granted, free of charge, to any person obtaining a copy "
+            + "of this software and associated documentation files (the \"Software\"), to "
+            + "deal in the Software without restriction, including without limitation the "
+            + "rights to use, copy, modify, merge, publish, distribute, sublicense, and/or "
+            + "sell copies of the Software.",
+        "The above copyright notice and this permission notice shall be included in all "
+            + "copies or substantial portions of the Software."
+    };
+
+    private JTextArea textArea;
+    private BufferedImage image;
+    private int frame;
+}
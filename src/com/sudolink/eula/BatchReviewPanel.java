@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JPanel;
+import javax.swing.JTextArea;
+import javax.swing.JToggleButton;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
+import javax.swing.SwingWorker;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+
+/**
+ * Index of every license that is waiting to be accepted, used by the Viewer
+ * in batch review mode (see Viewer.Config.BATCH_REVIEW). Each license is
+ * listed by its key; its text is read only when the user expands it, and is
+ * dropped again when it's collapsed. Nothing is read to show the index
+ * itself.
+ *
+ * Expanded texts are loaded the way the Viewer loads the license it shows:
+ * in chunks off the EDT, into a text area laid out by WrapView, and in
+ * low-memory mode into a ChunkedDocument and without adding them to the
+ * LicenseCache.
+ *
+ * @author Matthew MacGregor
+ */
+class BatchReviewPanel extends JPanel implements Scrollable { //deliberately package-private
+
+    /**
+     * @param licenses The licenses to list, in display order.
+     * @param metrics Receives the timings of the licenses that are loaded.
+     * @param isLowMemory True in low-memory mode (see
+     * Viewer.Config.LOW_MEMORY).
+     */
+    BatchReviewPanel(Collection<License> licenses, MetricsListener metrics,
+            boolean isLowMemory) {
+        this.metrics = metrics;
+        this.isLowMemory = isLowMemory;
+        this.sections = new ArrayList<>(licenses.size());
+        setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+        for (License license : licenses) {
+            Section section = new Section(license);
+            sections.add(section);
+            add(section.header);
+            add(section.body);
+        }
+    }
+
+    /**
+     * Stops loading any license text, e.g. when the viewer is closed.
+     */
+    void cancel() {
+        for (Section section : sections) {
+            section.cancel();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 16;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return (orientation == SwingConstants.VERTICAL) ? visibleRect.height : visibleRect.width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        // Wrap the license text instead of scrolling sideways.
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
+    /**
+     * An empty document for a license text. A new one is used for each text,
+     * since the root element of a PlainDocument keeps the lines removed from
+     * it until new lines take their place.
+     */
+    private Document createDocument() {
+        return isLowMemory ? new ChunkedDocument() : new PlainDocument();
+    }
+
+    /**
+     * The header and the collapsible text of one license.
+     */
+    private final class Section implements ActionListener {
+
+        Section(License license) {
+            this.license = license;
+            header = new JToggleButton(COLLAPSED + license.getKey());
+            header.setHorizontalAlignment(SwingConstants.LEADING);
+            header.setMaximumSize(new Dimension(Integer.MAX_VALUE,
+                    header.getPreferredSize().height));
+            header.setAlignmentX(LEFT_ALIGNMENT);
+            header.addActionListener(this);
+            body = new JTextArea(createDocument());
+            body.setEditable(false);
+            body.setLineWrap(true);
+            body.setWrapStyleWord(true);
+            WrapView.install(body);
+            body.setBorder(BorderFactory.createEmptyBorder(4, 12, 8, 4));
+            body.setAlignmentX(LEFT_ALIGNMENT);
+            body.setVisible(false);
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (header.isSelected()) {
+                header.setText(EXPANDED + license.getKey() + LOADING);
+                body.setDocument(createDocument());
+                body.setVisible(true);
+                loader = new Loader();
+                loader.execute();
+            } else {
+                header.setText(COLLAPSED + license.getKey());
+                cancel();
+                // Only expanded licenses are kept in memory.
+                body.setDocument(createDocument());
+                body.setVisible(false);
+            }
+            revalidate();
+        }
+
+        void cancel() {
+            if (loader != null) {
+                loader.cancel(true);
+                loader = null;
+            }
+        }
+
+        /**
+         * Reads the license off the EDT and appends it to the text area in
+         * chunks of roughly CHUNK_SIZE chars, as the Viewer's loader does.
+         */
+        private final class Loader extends SwingWorker<Boolean, String> implements Appendable {
+
+            @Override
+            protected Boolean doInBackground() throws Exception {
+                long start = System.nanoTime();
+                boolean isFound = license.read(this, isLowMemory == false);
+                flush();
+                if (isFound) {
+                    metrics.phaseCompleted(MetricsListener.Phase.LICENSE_LOAD, license.getKey(),
+                            System.nanoTime() - start, loaded);
+                }
+                return isFound;
+            }
+
+            @Override
+            protected void process(List<String> chunks) {
+                if (isCancelled()) {
+                    return;
+                }
+                boolean isFirst = body.getDocument().getLength() == 0;
+                for (String chunk : chunks) {
+                    body.append(chunk);
+                }
+                if (isFirst) {
+                    body.setCaretPosition(0);
+                }
+                revalidate();
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                header.setText(EXPANDED + license.getKey());
+                try {
+                    if (get() == false) {
+                        body.setText("The license file could not be found.");
+                    }
+                } catch (InterruptedException | CancellationException ex) {
+                    // Collapsed or closed in the meantime.
+                } catch (ExecutionException ex) {
+                    // Keep whatever has been shown.
+                    Logger.getLogger(BatchReviewPanel.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                }
+                revalidate();
+            }
+
+            @Override
+            public Appendable append(CharSequence csq) {
+                return append(csq, 0, csq.length());
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) {
+                loaded += end - start;
+                pending.append(csq, start, end);
+                if (pending.length() >= CHUNK_SIZE) {
+                    flush();
+                }
+                return this;
+            }
+
+            @Override
+            public Appendable append(char c) {
+                loaded++;
+                pending.append(c);
+                return this;
+            }
+
+            private void flush() {
+                if (pending.length() > 0) {
+                    publish(pending.toString());
+                    pending.setLength(0);
+                }
+            }
+
+            private final StringBuilder pending = new StringBuilder(CHUNK_SIZE);
+            private long loaded;
+        }
+
+        private final License license;
+        private final JToggleButton header;
+        private final JTextArea body;
+        private Loader loader;
+    }
+
+    private final MetricsListener metrics;
+    private final boolean isLowMemory;
+    private final List<Section> sections;
+    private static final String COLLAPSED = "\u25b8 ";
+    private static final String EXPANDED = "\u25be ";
+    private static final String LOADING = " (loading...)";
+    /* Number of chars appended to a text area at a time, as in the Viewer. */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long serialVersionUID = 1L;
+}
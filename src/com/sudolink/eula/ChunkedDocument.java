@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Plain text document for the low-memory mode of the Viewer (see
+ * Viewer.Config.LOW_MEMORY). The text is kept in chunks of at most
+ * CHUNK_CHARS chars instead of one gap buffer, so a long license never needs
+ * one large array, the storage doesn't double while the license is appended,
+ * and it's released as soon as the text is removed. Removed text isn't kept
+ * for undo.
+ *
+ * Chunks are never changed once they've been filled, and an edit replaces
+ * the ones it touches, which makes snapshot() free.
+ *
+ * @author Matthew MacGregor
+ */
+final class ChunkedDocument extends PlainDocument { //deliberately package-private
+
+    ChunkedDocument() {
+        this(new Chunks());
+    }
+
+    private ChunkedDocument(Chunks chunks) {
+        super(chunks);
+        this.chunks = chunks;
+    }
+
+    /**
+     * Returns the text of the document as it is now, without copying it.
+     * Later edits don't change the snapshot, so it may be read on another
+     * thread, by one thread at a time.
+     *
+     * @return The text of the document.
+     */
+    CharSequence snapshot() {
+        readLock();
+        try {
+            return chunks.snapshot(getLength());
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Content made of immutable chunks, found by binary search on the offsets
+     * they start at. Positions are kept sorted by offset, and move the same
+     * way as those of StringContent.
+     */
+    private static final class Chunks implements AbstractDocument.Content {
+
+        Chunks() {
+            // A document always ends with a newline that isn't part of its text.
+            replace(0, 0, "\n");
+        }
+
+        @Override
+        public Position createPosition(int offset) throws BadLocationException {
+            if (offset < 0 || offset > length) {
+                throw new BadLocationException("Invalid position", offset);
+            }
+            purgeMarks();
+            Sticky position = new Sticky();
+            marks.add(firstMark(offset + 1), new Mark(offset, position, queue));
+            return position;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where < 0 || where > length) {
+                throw new BadLocationException("Invalid insert", where);
+            }
+            purgeMarks();
+            replace(where, 0, str);
+            // Offset 0 stays at the start of the document.
+            int moved = Math.max(where, 1);
+            for (int i = firstMark(moved); i < marks.size(); i++) {
+                marks.get(i).offset += str.length();
+            }
+            return null;
+        }
+
+        @Override
+        public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            if (where < 0 || nitems < 0 || where + nitems >= length) {
+                throw new BadLocationException("Invalid remove", where + nitems);
+            }
+            purgeMarks();
+            replace(where, nitems, "");
+            for (int i = firstMark(where + 1); i < marks.size(); i++) {
+                Mark mark = marks.get(i);
+                mark.offset = Math.max(where, mark.offset - nitems);
+            }
+            return null;
+        }
+
+        @Override
+        public String getString(int where, int len) throws BadLocationException {
+            Segment segment = new Segment();
+            getChars(where, len, segment);
+            return segment.toString();
+        }
+
+        @Override
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length) {
+                throw new BadLocationException("Invalid location", where + len);
+            }
+            int chunk = chunkAt(where);
+            int offset = where - starts[chunk];
+            int inChunk = chunks[chunk].length - offset;
+            if (len <= inChunk || txt.isPartialReturn()) {
+                txt.array = chunks[chunk];
+                txt.offset = offset;
+                txt.count = Math.min(len, inChunk);
+            } else {
+                txt.array = new char[len];
+                txt.offset = 0;
+                txt.count = len;
+                copy(where, len, txt.array);
+            }
+        }
+
+        CharSequence snapshot(int length) {
+            return new Snapshot(chunks, starts, 0, length);
+        }
+
+        /**
+         * Replaces count chars at where with text. The chunks from the one
+         * holding where to the one holding where + count are joined with
+         * text and split again into new chunks; the others are kept.
+         */
+        private void replace(int where, int count, String text) {
+            int first = (length == 0) ? 0 : chunkAt(where);
+            int last = (length == 0) ? -1 : chunkAt(Math.max(where, where + count - 1));
+            int from = (length == 0) ? 0 : starts[first];
+            int to = (last < 0) ? 0 : starts[last] + chunks[last].length;
+            
+            char[] joined = new char[(to - from) - count + text.length()];
+            copy(from, where - from, joined);
+            text.getChars(0, text.length(), joined, where - from);
+            copy(where + count, to - where - count, joined, where - from + text.length());
+            
+            int added = (joined.length + CHUNK_CHARS - 1) / CHUNK_CHARS;
+            int size = chunks.length - (last - first + 1) + added;
+            char[][] newChunks = new char[size][];
+            System.arraycopy(chunks, 0, newChunks, 0, first);
+            for (int i = 0; i < added; i++) {
+                int start = i * CHUNK_CHARS;
+                newChunks[first + i] = Arrays.copyOfRange(joined, start,
+                        Math.min(joined.length, start + CHUNK_CHARS));
+            }
+            System.arraycopy(chunks, last + 1, newChunks, first + added, chunks.length - last - 1);
+            
+            int[] newStarts = new int[size + 1];
+            System.arraycopy(starts, 0, newStarts, 0, first + 1);
+            for (int i = first; i < size; i++) {
+                newStarts[i + 1] = newStarts[i] + newChunks[i].length;
+            }
+            chunks = newChunks;
+            starts = newStarts;
+            length = newStarts[size];
+        }
+
+        private void copy(int where, int len, char[] dest) {
+            copy(where, len, dest, 0);
+        }
+
+        private void copy(int where, int len, char[] dest, int destPos) {
+            if (len == 0) {
+                return;
+            }
+            for (int i = chunkAt(where); len > 0; i++) {
+                int offset = Math.max(0, where - starts[i]);
+                int n = Math.min(len, chunks[i].length - offset);
+                System.arraycopy(chunks[i], offset, dest, destPos, n);
+                destPos += n;
+                len -= n;
+            }
+        }
+
+        /* The index of the chunk holding the char at offset. */
+        private int chunkAt(int offset) {
+            return chunkAt(starts, chunks.length, offset);
+        }
+
+        /* The index of the first mark at or after offset. */
+        private int firstMark(int offset) {
+            int low = 0;
+            int high = marks.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (marks.get(mid).offset < offset) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /* Drops the marks whose positions are no longer referenced. */
+        private void purgeMarks() {
+            if (queue.poll() == null) {
+                return;
+            }
+            while (queue.poll() != null) {
+                // Drain, the marks are found below.
+            }
+            int kept = 0;
+            for (Mark mark : marks) {
+                if (mark.get() != null) {
+                    marks.set(kept++, mark);
+                }
+            }
+            marks.subList(kept, marks.size()).clear();
+        }
+
+        static int chunkAt(int[] starts, int count, int offset) {
+            int found = Arrays.binarySearch(starts, 0, count, offset);
+            return (found >= 0) ? found : -found - 2;
+        }
+
+        /* Immutable, never empty chunks in document order. */
+        private char[][] chunks = new char[0][];
+        /* starts[i] is the offset of chunks[i]; starts[chunks.length] is length. */
+        private int[] starts = new int[1];
+        private int length;
+        /* Marks in order of offset. */
+        private final List<Mark> marks = new ArrayList<>();
+        private final ReferenceQueue<Position> queue = new ReferenceQueue<>();
+    }
+
+    /**
+     * The offset of a position, dropped once the position is unreachable.
+     */
+    private static final class Mark extends WeakReference<Position> {
+
+        Mark(int offset, Sticky position, ReferenceQueue<Position> queue) {
+            super(position, queue);
+            this.offset = offset;
+            position.mark = this;
+        }
+
+        int offset;
+    }
+
+    private static final class Sticky implements Position {
+
+        @Override
+        public int getOffset() {
+            return mark.offset;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+
+        Mark mark;
+    }
+
+    /**
+     * A range of the text, read from the chunks it was taken from.
+     */
+    private static final class Snapshot implements CharSequence {
+
+        Snapshot(char[][] chunks, int[] starts, int start, int end) {
+            this.chunks = chunks;
+            this.starts = starts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            int offset = start + index;
+            // Mostly read in order, so the last chunk is tried first.
+            if (offset < starts[current] || offset >= starts[current + 1]) {
+                current = Chunks.chunkAt(starts, chunks.length, offset);
+            }
+            return chunks[current][offset - starts[current]];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || from > to || to > end - start) {
+                throw new IndexOutOfBoundsException(from + ", " + to);
+            }
+            return new Snapshot(chunks, starts, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(end - start);
+            return text.append(this).toString();
+        }
+
+        private final char[][] chunks;
+        private final int[] starts;
+        private final int start;
+        private final int end;
+        /* The chunk of the last char read. */
+        private int current;
+    }
+
+    private final Chunks chunks;
+    /* Number of chars per chunk. */
+    private static final int CHUNK_CHARS = 16 * 1024;
+    private static final long serialVersionUID = 1L;
+}
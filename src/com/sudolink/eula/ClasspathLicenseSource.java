@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * A license embedded as a resource, found through a given class loader. This
+ * is what addLicense(String, String) does with the EULA library's own class
+ * loader; use it for licenses in jars that are loaded separately, e.g. by
+ * plugins.
+ *
+ * If there's no resource at the path, a gzip compressed one at the path plus
+ * ".gz" is used instead, as for embedded licenses.
+ *
+ * @author Matthew MacGregor
+ */
+public class ClasspathLicenseSource implements LicenseSource {
+
+    /**
+     * @param loader The class loader that finds the resource.
+     * @param path The resource path, e.g. "licenses/eula.txt". A leading '/'
+     * is ignored.
+     */
+    public ClasspathLicenseSource(ClassLoader loader, String path) {
+        this.loader = loader;
+        this.path = path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        URL url = locate();
+        return (url != null) ? url.openStream() : null;
+    }
+
+    @Override
+    public String getName() {
+        URL url = locate();
+        return (url != null) ? url.toExternalForm() : path;
+    }
+
+    @Override
+    public String getCacheKey() {
+        // Resources don't change while the class loader is in use.
+        URL url = locate();
+        return (url != null) ? url.toExternalForm() : null;
+    }
+
+    @Override
+    public boolean exists() {
+        return locate() != null;
+    }
+
+    private URL locate() {
+        URL url = loader.getResource(path);
+        if (url == null) {
+            url = loader.getResource(path + LicenseCompression.GZIP_SUFFIX);
+        }
+        return url;
+    }
+
+    private final ClassLoader loader;
+    private final String path;
+}
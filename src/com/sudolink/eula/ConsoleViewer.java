@@ -0,0 +1,388 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shows the licenses on a terminal instead of in a window, for servers and
+ * build machines that have no display. It uses the same marker file as the
+ * Viewer, so a license accepted here is accepted for graphical launches too,
+ * and vice versa. No AWT or Swing classes are loaded.
+ *
+ *      EULA eula = new ConsoleViewer(fullPath, launchable);
+ *      eula.addLicense("eula.main", "/jar/path/to/license.txt");
+ *      eula.start();
+ *
+ * Each pending license is printed as it is read, one page at a time when the
+ * input is a terminal, and the user is asked to type "yes" to accept it.
+ *
+ * For unattended installs, licenses can be accepted up front with an
+ * acceptance file, named by the system property
+ * "com.sudolink.eula.acceptFile" or else the environment variable
+ * EULA_ACCEPT_FILE. Each line of the file holds the key of an accepted license
+ * and optionally the digest of its text, in which case the acceptance only
+ * counts while the license text is unchanged. Blank lines and lines starting
+ * with '#' are ignored. Licenses that aren't in the file are asked for as
+ * usual; if there's nobody to answer, they are declined.
+ *
+ * @author Matthew MacGregor
+ */
+public class ConsoleViewer implements EULA {
+
+    public class Config {
+        /**
+         * Pauses after every page of license text. Defaults to true when the
+         * JVM is attached to a terminal.
+         */
+        public static final int PAGED = 101;
+    }
+
+    /**
+     * Uses System.in and System.out.
+     *
+     * @param eulaPath This is the path to the EULA acceptance marker.
+     * @param application If the user accepts all of the licenses presented,
+     * this application will be launched.
+     */
+    public ConsoleViewer(String eulaPath, Launchable application) {
+        this(eulaPath, application, System.in, System.out);
+    }
+
+    /**
+     * @param eulaPath This is the path to the EULA acceptance marker.
+     * @param application If the user accepts all of the licenses presented,
+     * this application will be launched.
+     * @param in The user's answers, in the platform's default charset.
+     * @param out Receives the license text and the prompts.
+     */
+    public ConsoleViewer(String eulaPath, Launchable application, InputStream in, PrintStream out) {
+        app = application;
+        marker = new Marker(new File(eulaPath).getAbsolutePath());
+        licenses = new ArrayList<>();
+        this.in = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()));
+        this.out = out;
+        isPaged = System.console() != null;
+    }
+
+    @Override
+    public void addLicense(String key, String jarpath) {
+        licenses.add(new License(key, jarpath));
+    }
+
+    @Override
+    public void addLicense(String key, LicenseSource source) {
+        licenses.add(new License(key, source, null));
+    }
+
+    @Override
+    public void addLicenses(String manifestPath) {
+        licenses.addAll(LicenseManifest.read(manifestPath));
+    }
+
+    /**
+     * Sets implementation-specific configuration details defined by type.
+     * Supports Config.PAGED, Viewer.Config.INDEXED_MARKER and
+     * Viewer.Config.ASYNC_COMMIT; other types are ignored.
+     *
+     * @param type The implementation-specific configuration item.
+     * @param value The boolean value for the configuration point.
+     */
+    @Override
+    public void setConfiguration(int type, boolean value) {
+        switch (type) {
+            case Config.PAGED:
+                isPaged = value;
+                break;
+            case Viewer.Config.INDEXED_MARKER:
+                marker.setIndexed(value);
+                break;
+            case Viewer.Config.ASYNC_COMMIT:
+                isCommitAsync = value;
+                break;
+        }
+    }
+
+    /**
+     * Colors don't apply to a terminal, so this does nothing.
+     */
+    @Override
+    public void setColor(int type, Color c) {
+    }
+
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        metrics = listener;
+        marker.setMetricsListener(listener);
+    }
+
+    @Override
+    public boolean revoke(String key) {
+        marker.revoke(key);
+        return marker.commit();
+    }
+
+    /**
+     * Asks the user to accept each license that hasn't been accepted yet,
+     * then launches the application with the outcome.
+     */
+    @Override
+    public void start() {
+        Map<String, String> digests = new HashMap<>();
+        for (License l : licenses) {
+            digests.put(l.getKey(), l.getDigest());
+        }
+        Set<String> accepted = marker.acceptedKeys(digests);
+        Map<String, String> preseeded = readAcceptFile();
+
+        boolean isAccepted = true;
+        for (License license : licenses) {
+            if (accepted.contains(license.getKey())) {
+                continue;
+            }
+            if (isPreseeded(preseeded, license)) {
+                marker.put(license.getKey(), license.getDigest());
+                continue;
+            }
+            if (ask(license) == false) {
+                isAccepted = false;
+                break;
+            }
+            marker.put(license.getKey(), license.getDigest());
+        }
+        launchApplication(isAccepted);
+    }
+
+    /**
+     * Prints a license and asks the user to accept it.
+     *
+     * @return True if the user has accepted the license.
+     */
+    private boolean ask(License license) {
+        out.println();
+        out.println("License Agreement: " + license.getKey());
+        out.println();
+        try {
+            long start = System.nanoTime();
+            Pager pager = new Pager();
+            // Streamed to the terminal, and left out of the LicenseCache.
+            if (license.read(pager, false) == false) {
+                out.println("An important file is missing.");
+                out.println("Please contact the software vendor to correct this issue.");
+                return false;
+            }
+            metrics.phaseCompleted(MetricsListener.Phase.LICENSE_LOAD, license.getKey(),
+                    System.nanoTime() - start, pager.count);
+        } catch (Quit ex) {
+            return false;
+        } catch (IOException ex) {
+            Logger.getLogger(ConsoleViewer.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        out.flush();
+
+        while (true) {
+            out.print("Do you agree to be bound by the terms of this license? [yes/no] ");
+            out.flush();
+            String answer = readAnswer();
+            if (answer == null || answer.startsWith("n")) {
+                return false;
+            }
+            if (answer.equals("y") || answer.equals("yes")) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads a line from the user.
+     *
+     * @return The line, trimmed and in lower case, or null at the end of the
+     * input.
+     */
+    private String readAnswer() {
+        try {
+            String line = in.readLine();
+            return (line != null) ? line.trim().toLowerCase(Locale.ROOT) : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void launchApplication(boolean isEulaAccepted) {
+        if (isEulaAccepted == false) {
+            out.println("The license was not accepted.");
+            app.launchApplication(false, null);
+        } else if (isCommitAsync) {
+            CompletableFuture<Boolean> committed = marker.commitAsync();
+            app.launchApplication(true, null);
+            committed.thenAccept(new Consumer<Boolean>() {
+                @Override
+                public void accept(Boolean isCommitted) {
+                    app.acceptanceCommitted(isCommitted);
+                }
+            });
+        } else {
+            app.launchApplication(true, null);
+            app.acceptanceCommitted(marker.commit());
+        }
+    }
+
+    /**
+     * Reads the acceptance file, if one has been named.
+     *
+     * @return The keys in the file, each mapped to its digest or to null.
+     */
+    private static Map<String, String> readAcceptFile() {
+        Map<String, String> keys = new HashMap<>();
+        String name = System.getProperty(ACCEPT_FILE_PROPERTY, System.getenv(ACCEPT_FILE_VARIABLE));
+        if (name == null || name.isEmpty()) {
+            return keys;
+        }
+        try {
+            for (String line : Files.readAllLines(new File(name).toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                keys.put(fields[0], (fields.length > 1) ? fields[1] : null);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ConsoleViewer.class.getName()).log(Level.WARNING,
+                    "Acceptance file " + name + " could not be read", ex);
+        }
+        return keys;
+    }
+
+    private static boolean isPreseeded(Map<String, String> preseeded, License license) {
+        if (preseeded.containsKey(license.getKey()) == false) {
+            return false;
+        }
+        String digest = preseeded.get(license.getKey());
+        return digest == null || digest.equalsIgnoreCase(String.valueOf(license.getDigest()));
+    }
+
+    /**
+     * Writes the license text to the terminal as it is read, stopping after
+     * every page if paging is on.
+     */
+    private class Pager implements Appendable {
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            int from = start;
+            for (int i = start; i < end; i++) {
+                if (csq.charAt(i) == '\n' && isPageFull()) {
+                    out.append(csq, from, i + 1);
+                    from = i + 1;
+                    more();
+                }
+            }
+            out.append(csq, from, end);
+            count += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            out.append(c);
+            count++;
+            if (c == '\n' && isPageFull()) {
+                more();
+            }
+            return this;
+        }
+
+        /* Counts a line and tells whether it completes a page. */
+        private boolean isPageFull() {
+            return isPaging && ++lines % PAGE_LINES == 0;
+        }
+
+        private void more() throws IOException {
+            out.print("-- More -- [Enter] next page, [a] show all, [q] decline ");
+            out.flush();
+            String answer = readAnswer();
+            if (answer == null || answer.equals("q")) {
+                throw new Quit();
+            }
+            if (answer.equals("a")) {
+                isPaging = false;
+            }
+        }
+
+        long count;
+        private long lines;
+        private boolean isPaging = isPaged;
+    }
+
+    /**
+     * Thrown out of the Pager when the user declines in the middle of a
+     * license.
+     */
+    private static class Quit extends IOException {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    //The application to be launched if the user accepts the EULA.
+    private final Launchable app;
+    //Marker that indicates the user has accepted EULA.
+    private final Marker marker;
+    //List of the licenses to be displayed to the user.
+    private final List<License> licenses;
+    private final BufferedReader in;
+    private final PrintStream out;
+    private boolean isPaged;
+    private boolean isCommitAsync;
+    private MetricsListener metrics = MetricsListener.NONE;
+    //Lines per page when paging.
+    private static final int PAGE_LINES = 22;
+    static final String ACCEPT_FILE_PROPERTY = "com.sudolink.eula.acceptFile";
+    static final String ACCEPT_FILE_VARIABLE = "EULA_ACCEPT_FILE";
+}
@@ -44,11 +44,45 @@ public interface EULA {
      * exists, it will overwrite previous values.
      *
      * @param path The path to the license file that is embedded in the jar
-     * file. Note that licenses that aren't embedded are not supported at this
-     * time.
+     * file. Use addLicense(String, LicenseSource) for licenses that aren't
+     * embedded.
      */
     public void addLicense(String key, String path);
     
+    /**
+     * Adds a license whose text is read from a LicenseSource, such as a file
+     * on disk (FileLicenseSource) or a URL (UrlLicenseSource). Viewer, Gate
+     * and ConsoleViewer support it. The default throws, so that
+     * implementations written before LicenseSource still compile.
+     *
+     * @param key A user-specified string to identify the license.
+     * @param source Where the license text comes from.
+     * @throws UnsupportedOperationException If the implementation can only
+     * show licenses embedded in the jar file.
+     */
+    public default void addLicense(String key, LicenseSource source) {
+        throw new UnsupportedOperationException(getClass().getName()
+                + " doesn't support licenses from a LicenseSource");
+    }
+    
+    /**
+     * Adds every license listed in a manifest, in the order they're listed.
+     * The manifest is a text resource embedded in the jar file; see the
+     * README for its format. The default calls addLicense() for each license,
+     * ignoring any digests in the manifest.
+     *
+     * @param manifestPath The path to the manifest that is embedded in the
+     * jar file. Like the license paths in it, it should start with '/', or
+     * it is resolved against the com/sudolink/eula package.
+     * @throws IllegalArgumentException If the manifest doesn't exist or can't
+     * be parsed.
+     */
+    public default void addLicenses(String manifestPath) {
+        for (License license : LicenseManifest.read(manifestPath)) {
+            addLicense(license.getKey(), license.getPath());
+        }
+    }
+    
     /**
      * Sets implementation-specific configuration details defined by type.
      * 
@@ -64,4 +98,24 @@ public interface EULA {
      */
     public void setColor(int type, Color c);
     
+    /**
+     * Registers a listener that receives the timings of each phase of the
+     * launch. Call this before start(). The default ignores all timings.
+     * 
+     * @param listener The listener, or MetricsListener.NONE.
+     */
+    public default void setMetricsListener(MetricsListener listener) {
+    }
+    
+    /**
+     * Withdraws the user's acceptance of a license, so that it is shown again
+     * on the next start. The default does nothing.
+     * 
+     * @param key The key the license was added with.
+     * @return True if the revocation has been recorded.
+     */
+    public default boolean revoke(String key) {
+        return false;
+    }
+    
 }
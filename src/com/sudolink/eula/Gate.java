@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Color;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks the EULA acceptance marker before any user interface is created. If
+ * every license has already been accepted, the application is launched
+ * directly and no Swing or AWT classes are loaded. Otherwise a Viewer is
+ * created with the same licenses and configuration and started.
+ *
+ * Gate may be used anywhere a Viewer is used:
+ *
+ *      EULA eula = new Gate(fullPath, launchable);
+ *      eula.addLicense("eula.main", "/jar/path/to/license.txt");
+ *      eula.start();
+ *
+ * @author Matthew MacGregor
+ */
+public class Gate implements EULA {
+
+    /**
+     * @param eulaPath This is the path to the EULA acceptance marker.
+     * Generally, the path to this file should be in an applications settings
+     * directory (such as AppData on windows).
+     * @param application If the user accepts all of the licenses presented,
+     * this application will be launched.
+     */
+    public Gate(String eulaPath, Launchable application) {
+        app = application;
+        marker = new Marker(new File(eulaPath).getAbsolutePath());
+        licenses = new ArrayList<>();
+        configuration = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a license to be displayed to the user.
+     *
+     * @param key A user-specified string to identify the license. If key
+     * exists, it will overwrite previous values.
+     *
+     * @param jarpath The path to the license file that is embedded in the jar
+     * file. Use addLicense(String, LicenseSource) for licenses that aren't
+     * embedded.
+     */
+    @Override
+    public void addLicense(String key, String jarpath) {
+        licenses.add(new License(key, jarpath));
+    }
+
+    /**
+     * Adds a license whose text is read from a LicenseSource.
+     *
+     * @param key A user-specified string to identify the license.
+     * @param source Where the license text comes from.
+     */
+    @Override
+    public void addLicense(String key, LicenseSource source) {
+        licenses.add(new License(key, source, null));
+    }
+
+    /**
+     * Adds every license listed in a manifest, in the order they're listed,
+     * along with the digests the manifest gives.
+     *
+     * @param manifestPath The path to the manifest that is embedded in the
+     * jar file.
+     */
+    @Override
+    public void addLicenses(String manifestPath) {
+        licenses.addAll(LicenseManifest.read(manifestPath));
+    }
+
+    /**
+     * Launches the application if all licenses have been accepted, otherwise
+     * launches the EULA viewer frame. Call this method after you've added any
+     * licenses.
+     */
+    @Override
+    public void start() {
+        if (isEulaAccepted()) {
+            app.launchApplication(true, null);
+        } else {
+            createViewer().start();
+        }
+    }
+
+    /**
+     * Checks whether the user has accepted every license that has been added.
+     * This never touches Swing and may be used on its own, e.g. by tools that
+     * run without a display.
+     *
+     * @return True if there is nothing left for the user to accept.
+     */
+    public boolean isEulaAccepted() {
+        Map<String, String> digests = new HashMap<>();
+        for (License l : licenses) {
+            digests.put(l.getKey(), l.getDigest());
+        }
+        Set<String> accepted = marker.acceptedKeys(digests);
+        return accepted.containsAll(digests.keySet());
+    }
+
+    /**
+     * Sets implementation-specific configuration details defined by type. The
+     * values are passed on to the Viewer if one is created.
+     *
+     * @param type The implementation-specific configuration item.
+     * @param value The boolean value for the configuration point.
+     */
+    @Override
+    public void setConfiguration(int type, boolean value) {
+        if (type == Viewer.Config.INDEXED_MARKER) {
+            // Needed before the headless check, not only by the Viewer.
+            marker.setIndexed(value);
+        }
+        configuration.put(type, value);
+    }
+
+    /**
+     * Allows for implementation-specific configuration of colors. The color is
+     * passed on to the Viewer if one is created.
+     *
+     * @param type
+     * @param c
+     */
+    @Override
+    public void setColor(int type, Color c) {
+        colorType = type;
+        color = c;
+    }
+
+    /**
+     * Sets the memory budget of the search index in low-memory mode (see
+     * Viewer.Config.LOW_MEMORY). The budget is passed on to the Viewer if one
+     * is created.
+     *
+     * @param bytes The budget, see Viewer.setLowMemoryBudget().
+     */
+    public void setLowMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative budget: " + bytes);
+        }
+        lowMemoryBudget = bytes;
+    }
+
+    /**
+     * Registers a listener that receives the timings of each phase of the
+     * launch. The listener is passed on to the Viewer if one is created.
+     *
+     * @param listener The listener, or MetricsListener.NONE.
+     */
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        metrics = listener;
+        marker.setMetricsListener(listener);
+    }
+
+    /**
+     * Withdraws the user's acceptance of a license and commits the change.
+     *
+     * @param key The key the license was added with.
+     * @return True if the revocation has been written.
+     */
+    @Override
+    public boolean revoke(String key) {
+        marker.revoke(key);
+        return marker.commit();
+    }
+
+    private Viewer createViewer() {
+        // Share the marker so that the file isn't read a second time.
+        Viewer viewer = new Viewer(marker, app);
+        viewer.setMetricsListener(metrics);
+        for (License l : licenses) {
+            viewer.addLicense(l);
+        }
+        for (Map.Entry<Integer, Boolean> entry : configuration.entrySet()) {
+            viewer.setConfiguration(entry.getKey(), entry.getValue());
+        }
+        if (color != null) {
+            viewer.setColor(colorType, color);
+        }
+        if (lowMemoryBudget != null) {
+            viewer.setLowMemoryBudget(lowMemoryBudget);
+        }
+        return viewer;
+    }
+
+    //The application to be launched if the user accepts the EULA.
+    private final Launchable app;
+    //Marker that indicates the user has accepted EULA.
+    private final Marker marker;
+    //List of the licenses to be displayed to the user.
+    private final List<License> licenses;
+    //Configuration options to pass on to the Viewer.
+    private final Map<Integer, Boolean> configuration;
+    private int colorType;
+    private Color color;
+    private Long lowMemoryBudget;
+    private MetricsListener metrics = MetricsListener.NONE;
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records each phase as a JDK Flight Recorder event named
+ * "com.sudolink.eula.Phase", so that launches can be inspected alongside the
+ * rest of a recording. Requires a JVM that ships the jdk.jfr module (Java 11
+ * or later, or Java 8u262 or later); the class is only loaded when it is
+ * used.
+ *
+ * @author Matthew MacGregor
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+    @Override
+    public void phaseCompleted(Phase phase, String name, long nanos, long count) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.phase = phase.name();
+            event.name = name;
+            event.nanos = nanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    @Name("com.sudolink.eula.Phase")
+    @Label("EULA Phase")
+    @Category("EULAtool")
+    @Description("A completed phase of a EULA launch check")
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Name")
+        @Description("License key or marker path")
+        String name;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+
+        @Label("Count")
+        long count;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs the launch of an application whose licenses have all been accepted,
+ * i.e. Gate.start() down to Launchable.launchApplication(), and nothing else.
+ * The build runs it with -XX:DumpLoadedClassList to find the classes that
+ * launch needs, checks their number against launch.class.budget, and archives
+ * them for Class Data Sharing (see the cds target in build.xml).
+ * LaunchProfileTest checks the same budget with every test run.
+ *
+ * Usage: LaunchProfile prepare|run|baseline <marker path>
+ *        LaunchProfile count <class list> <baseline class list> <budget>
+ *
+ * "prepare" writes a marker in which the profile's license is accepted, so
+ * that the classes needed to write markers aren't part of the profile; "run"
+ * is the launch itself and exits with status 1 if it isn't accepted;
+ * "baseline" returns at once, giving the classes the JVM loads anyway.
+ * "count" prints the number of classes in the first list that aren't in the
+ * second and exits with status 1 if there are more than budget.
+ *
+ * @author Matthew MacGregor
+ */
+class LaunchProfile { //deliberately package-private
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("count")) {
+            count(Paths.get(args[1]), Paths.get(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        if (args.length != 2) {
+            System.err.println("Usage: LaunchProfile prepare|run|baseline <marker path>");
+            System.err.println("       LaunchProfile count <class list> <baseline class list> <budget>");
+            System.exit(1);
+        }
+        if (args[0].equals("baseline")) {
+            return;
+        }
+        String path = new File(args[1]).getAbsolutePath();
+        if (args[0].equals("prepare")) {
+            Marker marker = new Marker(path);
+            marker.put(KEY);
+            System.exit(marker.commit() ? 0 : 1);
+        }
+        
+        Gate gate = new Gate(path, new Launchable() {
+
+            @Override
+            public void launchApplication(boolean isEulaAccepted, String[] args) {
+                isLaunched = isEulaAccepted;
+            }
+        });
+        gate.addLicense(KEY, LICENSE_PATH);
+        if (gate.isEulaAccepted() == false) {
+            // Gate.start() would go on to load Swing.
+            System.err.println("The license isn't accepted in " + path);
+            System.exit(1);
+        }
+        gate.start();
+        System.exit(isLaunched ? 0 : 1);
+    }
+    
+    /**
+     * Compares two lists written by -XX:DumpLoadedClassList.
+     */
+    private static void count(Path list, Path baseline, int budget) throws IOException {
+        Set<String> loaded = extraClasses(list, baseline);
+        System.out.println("The launch loads " + loaded.size()
+                + " classes more than an empty main method (budget " + budget + ")");
+        if (loaded.size() > budget) {
+            for (String name : new TreeSet<>(loaded)) {
+                System.out.println("    " + name);
+            }
+            System.exit(1);
+        }
+    }
+    
+    /**
+     * Package-private for LaunchProfileTest.
+     *
+     * @return The names of the classes in the first list that aren't in the
+     * baseline.
+     */
+    static Set<String> extraClasses(Path list, Path baseline) throws IOException {
+        Set<String> loaded = readClassList(list);
+        loaded.removeAll(readClassList(baseline));
+        return loaded;
+    }
+    
+    /**
+     * @return The names of the classes in a class list, without comments and
+     * other entries.
+     */
+    private static Set<String> readClassList(Path list) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (String line : Files.readAllLines(list, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith("@")) {
+                continue;
+            }
+            int end = line.indexOf(' ');
+            names.add((end < 0) ? line : line.substring(0, end));
+        }
+        return names;
+    }
+    
+    private static boolean isLaunched;
+    private static final String KEY = "launch.profile";
+    /* Never read on the accepted path; only its digest is looked up. */
+    private static final String LICENSE_PATH = "/com/sudolink/eula/launch-profile.txt";
+}
@@ -42,4 +42,17 @@ public interface Launchable {
      */
     public void launchApplication(boolean isEulaAccepted, String[]  args);
 
+    /**
+     * Called once the user's acceptance has been written to the marker file,
+     * or has failed to be written. If it failed, the user will be asked to
+     * accept the licenses again on the next launch. It is never called before
+     * launchApplication() has returned. When commits are asynchronous (see
+     * Viewer.Config.ASYNC_COMMIT), it is called on the background writer
+     * thread, or on the launching thread if the write finished first.
+     * 
+     * @param isCommitted True if the marker file has been written.
+     */
+    public default void acceptanceCommitted(boolean isCommitted) {
+    }
+
 }
@@ -23,10 +23,16 @@
  */
 package com.sudolink.eula;
 
-import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,40 +43,201 @@ import java.util.logging.Logger;
 class License { //deliberately package-private
 
     public License(String key, String path) {
+        this(key, path, null);
+    }
+    
+    /**
+     * @param key The key of the license.
+     * @param path The resource path of the license.
+     * @param digest The hex SHA-256 digest of the license text, or null to
+     * look it up in the build-time index.
+     */
+    public License(String key, String path, String digest) {
         this.key = key;
         this.path = path;
+        this.digest = digest;
+        this.source = null;
+    }
+    
+    /**
+     * @param key The key of the license.
+     * @param source Where the license text comes from.
+     * @param digest The hex SHA-256 digest of the license text, or null if
+     * unknown.
+     */
+    public License(String key, LicenseSource source, String digest) {
+        this.key = key;
+        this.path = source.getName();
+        this.digest = digest;
+        this.source = source;
     }
     
     /**
      * Reads the data from a text file that is stored in the jar file as a
-     * resource.
+     * resource. The file is decoded as UTF-8 and line endings are normalized
+     * to "\n". Compressed resources are decompressed on the fly (see
+     * LicenseCompression). The text is kept in the LicenseCache, so reading
+     * the same resource again doesn't touch the jar.
      *
-     * @return
+     * @return The text of the license, or null if the resource doesn't exist.
      */
     public final String read() {
-        String thisLine;
-        String fileText = "";
+        StringBuilder fileText = null;
         
         try {
-            InputStream is = getClass().getResourceAsStream(path);
-            if( is == null ) { 
+            LicenseSource resolved = resolve();
+            if( resolved == null ) { 
                 /* 
                 *  Path isn't valid, return null. 
                 */
                 return null;
             }
-            BufferedReader br = new BufferedReader(
-                    new InputStreamReader(is)
-            );
-            while ((thisLine = br.readLine()) != null) {
-                fileText += thisLine + "\n";
+            String cacheKey = resolved.getCacheKey();
+            LicenseCache.Text cached = lookUp(cacheKey);
+            if (cached != null) {
+                return cached.text;
             }
+            InputStream stored = resolved.open();
+            if (stored == null) {
+                return null;
+            }
+            fileText = new StringBuilder(sizeHint(resolved));
+            DigestInputStream digesting = digesting(stored);
+            try (InputStream is = LicenseCompression.decompress(
+                    (digesting != null) ? digesting : stored, resolved.getName())) {
+                copy(new InputStreamReader(is, StandardCharsets.UTF_8), fileText);
+                pin(digesting);
+            }
+            String text = fileText.toString();
+            if (cacheKey != null) {
+                LicenseCache.put(cacheKey, text, sourceDigest);
+            }
+            return text;
 
         } catch (IOException ex) {
             Logger.getLogger(License.class.getName()).log(Level.SEVERE, null, ex);
         }
         
-        return fileText;
+        return (fileText != null) ? fileText.toString() : "";
+    }
+    
+    /**
+     * Reads the license text in chunks, appending each chunk to out as soon
+     * as it has been decoded. This allows the caller to start showing the
+     * text before the whole file has been read. The text is the same as the
+     * one returned by read(), and is taken from or added to the LicenseCache
+     * in the same way.
+     *
+     * @param out Receives the text of the license.
+     * @return False if the resource doesn't exist.
+     * @throws IOException If the resource can't be read, or if out throws.
+     */
+    public final boolean read(Appendable out) throws IOException {
+        return read(out, true);
+    }
+    
+    /**
+     * Reads the license text in chunks, as read(Appendable) does.
+     *
+     * @param out Receives the text of the license.
+     * @param isCached False to leave the text out of the LicenseCache, e.g.
+     * when memory is short. A text that is already cached is still used.
+     * @return False if the resource doesn't exist.
+     * @throws IOException If the resource can't be read, or if out throws.
+     */
+    final boolean read(Appendable out, boolean isCached) throws IOException {
+        LicenseSource resolved = resolve();
+        if( resolved == null ) {
+            return false;
+        }
+        String cacheKey = resolved.getCacheKey();
+        LicenseCache.Text cached = lookUp(cacheKey);
+        if (cached != null) {
+            // Still in chunks, so that out sees the same calls either way.
+            String text = cached.text;
+            for (int i = 0; i < text.length(); i += CHUNK_SIZE) {
+                out.append(text, i, Math.min(i + CHUNK_SIZE, text.length()));
+            }
+            return true;
+        }
+        
+        InputStream stored = resolved.open();
+        if (stored == null) {
+            return false;
+        }
+        // Keep a copy for the cache, unless the text is too large for it.
+        int hint = sizeHint(resolved);
+        StringBuilder copy = (isCached && cacheKey != null && LicenseCache.isCacheable(hint))
+                ? new StringBuilder(hint) : null;
+        DigestInputStream digesting = digesting(stored);
+        try (InputStream is = LicenseCompression.decompress(
+                (digesting != null) ? digesting : stored, resolved.getName())) {
+            copy(new InputStreamReader(is, StandardCharsets.UTF_8),
+                    (copy != null) ? new Tee(out, copy) : out);
+            pin(digesting);
+        }
+        if (copy != null) {
+            LicenseCache.put(cacheKey, copy.toString(), sourceDigest);
+        }
+        return true;
+    }
+    
+    /**
+     * Opens the license for reading as a stream of characters, decoded as
+     * UTF-8. Line endings are left untouched. The caller is responsible for
+     * closing the reader.
+     *
+     * @return A reader for the license text.
+     * @throws FileNotFoundException If the resource doesn't exist.
+     * @throws IOException If the resource can't be opened.
+     */
+    public final Reader openReader() throws IOException {
+        LicenseSource resolved = resolve();
+        InputStream stored = (resolved != null) ? resolved.open() : null;
+        if( stored == null ) {
+            throw new FileNotFoundException(path);
+        }
+        return new InputStreamReader(LicenseCompression.decompress(stored, resolved.getName()),
+                StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Makes sure that a license accepted without being shown, as in batch
+     * review, can be read, and that its digest is known. A license from a
+     * LicenseSource is read through, which downloads it if need be and pins
+     * its digest the same way reading it for display does; the text itself
+     * is dropped. An embedded license is only looked up, since its digest
+     * comes from the build-time index. This may take a while, so call it off
+     * the EDT.
+     *
+     * @param isCached False to leave the text out of the LicenseCache.
+     * @return False if the license doesn't exist.
+     * @throws IOException If the license can't be read.
+     */
+    final boolean verify(boolean isCached) throws IOException {
+        if (source == null) {
+            return exists();
+        }
+        return read(DISCARD, isCached);
+    }
+    
+    /**
+     * Checks that the license resource exists, without reading it if it's
+     * embedded in the jar file.
+     *
+     * @return True if the resource exists.
+     */
+    public final boolean exists() {
+        if (source != null) {
+            try {
+                return source.exists();
+            } catch (IOException ex) {
+                Logger.getLogger(License.class.getName()).log(Level.WARNING, null, ex);
+                return false;
+            }
+        }
+        return getClass().getResource(path) != null
+                || getClass().getResource(path + LicenseCompression.GZIP_SUFFIX) != null;
     }
     
     /**
@@ -81,6 +248,258 @@ class License { //deliberately package-private
         return key;
     }
     
+    /**
+     * @return The resource path of the license, or the name of its
+     * LicenseSource.
+     */
+    public String getPath() {
+        return path;
+    }
+    
+    /**
+     * The digest of the license text, as given to the constructor or
+     * precomputed at build time. The license itself is not read. The digest
+     * of a license from a LicenseSource has no build-time index to come from,
+     * so unless it was given to the constructor it is known only once the
+     * text has been read through this License (see LicenseSource).
+     *
+     * @return The hex SHA-256 digest of the license, or null if it isn't
+     * known.
+     */
+    public String getDigest() {
+        if (digest != null) {
+            return digest;
+        }
+        if (source != null) {
+            return sourceDigest;
+        }
+        String absolutePath = path.startsWith("/")
+                ? path
+                : "/" + License.class.getPackage().getName().replace('.', '/') + "/" + path;
+        String indexed = LicenseDigests.get(absolutePath);
+        if (indexed == null) {
+            indexed = LicenseDigests.get(absolutePath + LicenseCompression.GZIP_SUFFIX);
+        }
+        return indexed;
+    }
+    
+    /**
+     * Returns the LicenseSource given to the constructor, or else locates the
+     * resource in the jar file. If there's no resource at the path, a gzip
+     * compressed one at the path plus ".gz" is used instead, so that licenses
+     * compressed at build time are found under their original path.
+     * 
+     * @return The source of the license, or null if it doesn't exist.
+     */
+    private LicenseSource resolve() throws IOException {
+        if (source != null) {
+            return source;
+        }
+        URL url = getClass().getResource(path);
+        if (url == null) {
+            url = getClass().getResource(path + LicenseCompression.GZIP_SUFFIX);
+        }
+        return (url != null) ? new Resource(url) : null;
+    }
+    
+    /**
+     * Looks up the text in the LicenseCache. A license from a LicenseSource
+     * takes its digest from the cache along with the text. A text cached
+     * without one, e.g. by a License that was given its digest, isn't used
+     * while the digest is still needed, so the license is read again.
+     *
+     * @param cacheKey The key of the text, or null if it isn't cached.
+     * @return The cached text, or null if the license must be read.
+     */
+    private LicenseCache.Text lookUp(String cacheKey) {
+        LicenseCache.Text cached = (cacheKey != null) ? LicenseCache.get(cacheKey) : null;
+        if (cached == null || source == null || digest != null) {
+            return cached;
+        }
+        if (cached.digest == null) {
+            return null;
+        }
+        sourceDigest = cached.digest;
+        return cached;
+    }
+    
+    /**
+     * Starts computing the digest of a license from a LicenseSource as it is
+     * read.
+     *
+     * @return The stream to read instead, or null if the digest isn't needed.
+     */
+    private DigestInputStream digesting(InputStream stored) {
+        return (source != null && digest == null) ? LicenseDigests.digesting(stored) : null;
+    }
+    
+    /**
+     * Keeps the digest of the text that has just been read, so that it is
+     * recorded when the license is accepted.
+     */
+    private void pin(DigestInputStream digesting) throws IOException {
+        if (digesting != null) {
+            sourceDigest = LicenseDigests.finish(digesting);
+        }
+    }
+    
+    /**
+     * Estimates the number of chars in the license from its length in bytes,
+     * which is an upper bound for UTF-8 unless the license is compressed.
+     */
+    private static int sizeHint(LicenseSource resolved) {
+        long length = resolved.getLength();
+        if (length < 0) {
+            return CHUNK_SIZE;
+        }
+        String name = resolved.getName();
+        if (name.endsWith(LicenseCompression.GZIP_SUFFIX)
+                || name.endsWith(LicenseCompression.DEFLATE_SUFFIX)) {
+            length *= LicenseCompression.EXPANSION_HINT;
+        }
+        // Leave room for a trailing newline.
+        return (int) Math.min(length + 1, Integer.MAX_VALUE - 8);
+    }
+    
+    /**
+     * Copies the text from in to out one buffer at a time. "\r\n" and "\r"
+     * are replaced with "\n", and a final "\n" is added if the text doesn't
+     * end with one, matching the text that was previously built line by line
+     * with readLine().
+     */
+    private static void copy(Reader in, Appendable out) throws IOException {
+        char[] buffer = new char[CHUNK_SIZE];
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        boolean isAfterReturn = false;
+        char last = '\n';
+        int count;
+        
+        while ((count = in.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                char c = buffer[i];
+                if (c == '\r') {
+                    out.append(chars, start, i).append('\n');
+                    start = i + 1;
+                    isAfterReturn = true;
+                } else {
+                    if (c == '\n' && isAfterReturn) {
+                        // Second half of "\r\n", already written.
+                        out.append(chars, start, i);
+                        start = i + 1;
+                    }
+                    isAfterReturn = false;
+                }
+            }
+            out.append(chars, start, count);
+            if (count > 0) {
+                last = (buffer[count - 1] == '\r') ? '\n' : buffer[count - 1];
+            }
+        }
+        
+        if (last != '\n') {
+            out.append('\n');
+        }
+    }
+    
+    /**
+     * A resource in the jar file, read through a single URLConnection.
+     */
+    private static final class Resource implements LicenseSource {
+
+        Resource(URL url) throws IOException {
+            this.url = url;
+            this.connection = url.openConnection();
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public String getName() {
+            return url.getPath();
+        }
+
+        @Override
+        public long getLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public String getCacheKey() {
+            return url.toExternalForm();
+        }
+
+        private final URL url;
+        private final URLConnection connection;
+    }
+    
+    /**
+     * Appends everything to two Appendables.
+     */
+    private static final class Tee implements Appendable {
+
+        Tee(Appendable first, Appendable second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            first.append(csq);
+            second.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            first.append(csq, start, end);
+            second.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            first.append(c);
+            second.append(c);
+            return this;
+        }
+
+        private final Appendable first;
+        private final Appendable second;
+    }
+    
+    /**
+     * Drops everything appended to it.
+     */
+    private static final class Discard implements Appendable {
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return this;
+        }
+    }
+    
     private final String path;
     private final String key;
+    private final String digest;
+    /* Null for licenses embedded in the jar file. */
+    private final LicenseSource source;
+    /* Digest of the text last read from the source, if none was given. */
+    private volatile String sourceDigest;
+    /* Number of chars decoded at a time. */
+    private static final int CHUNK_SIZE = 8192;
+    private static final Appendable DISCARD = new Discard();
 }
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of decoded license texts, shared by every Viewer and
+ * Gate in the JVM. A host that shows the same licenses for several products,
+ * or shows them again, decodes each resource once instead of reading it from
+ * the jar every time.
+ *
+ * Texts are keyed by the URL of the resource, which identifies both the path
+ * and the jar or directory the class loader found it in, so identical paths in
+ * different jars don't share an entry. Texts read from a LicenseSource are
+ * kept with the digest of the bytes they were decoded from, so that a License
+ * that finds its text here knows the digest without reading it. The least recently used texts are
+ * dropped once the cache holds more than the byte budget, which defaults to
+ * 16 MB and can be set with the system property
+ * "com.sudolink.eula.LicenseCache.budget" or with setByteBudget(). A budget of
+ * 0 turns the cache off.
+ *
+ * @author Matthew MacGregor
+ */
+public final class LicenseCache {
+
+    private LicenseCache() {
+    }
+
+    /**
+     * Sets the number of bytes the cached texts may take up, dropping texts
+     * if the cache is already larger.
+     *
+     * @param bytes The budget, or 0 to turn the cache off.
+     */
+    public static void setByteBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative budget: " + bytes);
+        }
+        synchronized (TEXTS) {
+            budget = bytes;
+            evict();
+        }
+    }
+
+    /**
+     * @return The number of bytes the cached texts may take up.
+     */
+    public static long getByteBudget() {
+        synchronized (TEXTS) {
+            return budget;
+        }
+    }
+
+    /**
+     * @return The estimated number of bytes the cached texts take up.
+     */
+    public static long getByteCount() {
+        synchronized (TEXTS) {
+            return size;
+        }
+    }
+
+    /**
+     * @return The number of times a license text was found in the cache.
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * @return The number of times a license text had to be read.
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * Drops every cached text. The counters are kept.
+     */
+    public static void clear() {
+        synchronized (TEXTS) {
+            TEXTS.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Looks up a license text and counts the hit or miss.
+     *
+     * @param url The URL of the license resource.
+     * @return The text, or null if it isn't cached.
+     */
+    static Text get(String url) {
+        Text text;
+        synchronized (TEXTS) {
+            text = TEXTS.get(url);
+        }
+        (text != null ? HITS : MISSES).incrementAndGet();
+        return text;
+    }
+
+    /**
+     * Adds a license text, unless it's larger than the whole budget.
+     *
+     * @param url The URL of the license resource.
+     * @param text The decoded text.
+     * @param digest The hex SHA-256 digest of the stored bytes, or null if it
+     * wasn't computed.
+     */
+    static void put(String url, String text, String digest) {
+        synchronized (TEXTS) {
+            if (isCacheable(text.length()) == false) {
+                return;
+            }
+            Text previous = TEXTS.put(url, new Text(text, digest));
+            if (previous != null) {
+                size -= bytes(previous.text.length());
+            }
+            size += bytes(text.length());
+            evict();
+        }
+    }
+
+    /**
+     * @param length The number of chars in a text.
+     * @return True if a text of that length would fit in the budget.
+     */
+    static boolean isCacheable(long length) {
+        synchronized (TEXTS) {
+            return bytes(length) <= budget;
+        }
+    }
+
+    /* Drops the least recently used texts until the cache fits the budget. */
+    private static void evict() {
+        Iterator<Text> iterator = TEXTS.values().iterator();
+        while (size > budget && iterator.hasNext()) {
+            size -= bytes(iterator.next().text.length());
+            iterator.remove();
+        }
+    }
+
+    /* Two bytes per char, as stored by String. */
+    private static long bytes(long length) {
+        return length * 2;
+    }
+
+    /**
+     * A cached license text.
+     */
+    static final class Text {
+
+        Text(String text, String digest) {
+            this.text = text;
+            this.digest = digest;
+        }
+
+        /* The decoded text. */
+        final String text;
+        /* The hex SHA-256 digest of the stored bytes, or null. */
+        final String digest;
+    }
+
+    /* Texts in access order, least recently used first. Guarded by itself. */
+    private static final Map<String, Text> TEXTS = new LinkedHashMap<>(16, 0.75f, true);
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static long budget = Long.getLong("com.sudolink.eula.LicenseCache.budget",
+            16 * 1024 * 1024);
+    private static long size;
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Support for license resources that are stored compressed in the jar file.
+ * A license may be gzip compressed (".gz") or zlib compressed (".deflate"),
+ * either under a name with that suffix or under its original name, in which
+ * case the compression is recognized by the first bytes of the resource.
+ * Licenses are decompressed while they're read, so the text is never held in
+ * memory in both forms.
+ *
+ * The licenses can be compressed at build time (see the -compress-licenses
+ * target in build.xml), which runs main() after the digests have been
+ * written, so the digests are always those of the plain text.
+ *
+ * @author Matthew MacGregor
+ */
+class LicenseCompression { //deliberately package-private
+
+    private LicenseCompression() {
+    }
+
+    /**
+     * Wraps a license stream so that it yields the plain text, whether or
+     * not the license has been compressed.
+     *
+     * @param in The stream of the resource as stored.
+     * @param name The name of the resource, used to recognize the suffix.
+     * @return A stream of the uncompressed bytes. Closing it closes in.
+     * @throws IOException If the stream can't be read.
+     */
+    static InputStream decompress(InputStream in, String name) throws IOException {
+        if (name.endsWith(GZIP_SUFFIX)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        if (name.endsWith(DEFLATE_SUFFIX)) {
+            return inflate(in);
+        }
+
+        // No suffix, so look at the magic bytes.
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        int b0 = buffered.read();
+        int b1 = buffered.read();
+        buffered.reset();
+        if (b0 == 0x1f && b1 == 0x8b) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        // A zlib header with a 32K window, as written by Deflater. Levels 2
+        // to 5 are left out, since their header reads "x^" and could just as
+        // well be the start of a plain text.
+        if (b0 == 0x78 && (b1 == 0x01 || b1 == 0x9c || b1 == 0xda)) {
+            return inflate(buffered);
+        }
+        return buffered;
+    }
+
+    /**
+     * Compresses licenses at build time. Each file is replaced with a gzip
+     * compressed copy under the same name plus ".gz".
+     *
+     * @param args A list of license files, separated by File.pathSeparator.
+     * @throws IOException If a license can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args[0].isEmpty()) {
+            return;
+        }
+        for (String name : args[0].split(File.pathSeparator)) {
+            Path license = Paths.get(name);
+            Path compressed = Paths.get(name + GZIP_SUFFIX);
+            try (OutputStream os = Files.newOutputStream(compressed);
+                    OutputStream out = new GZIPOutputStream(os, BUFFER_SIZE) {
+                        {
+                            def.setLevel(Deflater.BEST_COMPRESSION);
+                        }
+                    }) {
+                Files.copy(license, out);
+            }
+            Files.delete(license);
+        }
+    }
+
+    private static InputStream inflate(InputStream in) {
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // Not done by InflaterInputStream for an Inflater it
+                    // was given.
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    /* Suffixes of compressed licenses. */
+    static final String GZIP_SUFFIX = ".gz";
+    static final String DEFLATE_SUFFIX = ".deflate";
+    /* Compressed licenses shrink by about this much, for sizing buffers. */
+    static final int EXPANSION_HINT = 4;
+    private static final int BUFFER_SIZE = 8192;
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Index of the SHA-256 digests of the licenses embedded in the jar file. The
+ * index is a properties file that maps the absolute resource path of each
+ * license to the hex digest of its bytes. It is written at build time (see
+ * the -license-digests target in build.xml) so that licenses never need to be
+ * read or hashed at runtime just to find out whether they have changed.
+ *
+ * Every jar or classes directory may carry its own index at the same path:
+ * the library's jar has one, and so does each application that runs the
+ * -license-digests target, or LicenseDigests itself, over its own classes.
+ * All of the indexes that the class loader of the library can see are merged,
+ * so an application's index isn't hidden by the library's. If two of them
+ * list the same path, the first on the class path wins, as it does when the
+ * license itself is looked up.
+ *
+ * If no index lists a license, the digest of that license is unknown and
+ * acceptance falls back to matching the key alone.
+ *
+ * @author Matthew MacGregor
+ */
+class LicenseDigests { //deliberately package-private
+
+    private LicenseDigests() {
+    }
+
+    /**
+     * Looks up the precomputed digest of a license.
+     *
+     * @param path The absolute resource path of the license.
+     * @return The hex digest, or null if it isn't in the index.
+     */
+    static String get(String path) {
+        return Index.DIGESTS.getProperty(path);
+    }
+
+    /**
+     * Computes the hex SHA-256 digest of a stream.
+     *
+     * @param in The stream to hash, read to the end but not closed.
+     * @return The hex digest.
+     * @throws IOException If the stream can't be read.
+     */
+    static String digest(InputStream in) throws IOException {
+        return finish(digesting(in));
+    }
+
+    /**
+     * Wraps a stream so that its SHA-256 digest is computed as it is read,
+     * e.g. while a license is being shown.
+     *
+     * @param in The stream to hash.
+     * @return The stream to read instead, to be passed to finish().
+     */
+    static DigestInputStream digesting(InputStream in) {
+        try {
+            return new DigestInputStream(in, MessageDigest.getInstance(ALGORITHM));
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Reads the rest of a stream returned by digesting().
+     *
+     * @param in The stream, read to the end but not closed.
+     * @return The hex digest of everything read from it.
+     * @throws IOException If the stream can't be read.
+     */
+    static String finish(DigestInputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Hashed as it's read.
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : in.getMessageDigest().digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Writes the index at build time.
+     *
+     * @param args The classes directory, followed by a list of license files
+     * inside that directory, separated by File.pathSeparator.
+     * @throws IOException If a license can't be read or the index can't be
+     * written.
+     */
+    public static void main(String[] args) throws IOException {
+        File root = new File(args[0]).getCanonicalFile();
+        Properties index = new Properties();
+
+        if (args.length > 1 && args[1].isEmpty() == false) {
+            for (String name : args[1].split(File.pathSeparator)) {
+                File license = new File(name).getCanonicalFile();
+                String path = "/" + root.toPath().relativize(license.toPath())
+                        .toString().replace(File.separatorChar, '/');
+                // The digest is always that of the plain text.
+                try (InputStream in = LicenseCompression.decompress(
+                        Files.newInputStream(license.toPath()), path)) {
+                    index.setProperty(path, digest(in));
+                }
+            }
+        }
+
+        File out = new File(root, INDEX.substring(1));
+        out.getParentFile().mkdirs();
+        try (OutputStream os = new FileOutputStream(out)) {
+            index.store(os, "SHA-256 digests of the embedded licenses");
+        }
+    }
+
+    /**
+     * Holds the merged indexes, which are read the first time a digest is
+     * requested.
+     */
+    private static class Index {
+
+        static final Properties DIGESTS = load();
+
+        private static Properties load() {
+            Properties digests = new Properties();
+            ClassLoader loader = LicenseDigests.class.getClassLoader();
+            if (loader == null) {
+                loader = ClassLoader.getSystemClassLoader();
+            }
+            try {
+                Enumeration<URL> indexes = loader.getResources(INDEX.substring(1));
+                while (indexes.hasMoreElements()) {
+                    URL url = indexes.nextElement();
+                    Properties index = new Properties();
+                    try (InputStream is = url.openStream()) {
+                        index.load(is);
+                    } catch (IOException ex) {
+                        Logger.getLogger(LicenseDigests.class.getName()).log(Level.WARNING,
+                                "License digests " + url + " could not be read", ex);
+                    }
+                    for (String path : index.stringPropertyNames()) {
+                        if (digests.containsKey(path) == false) {
+                            digests.setProperty(path, index.getProperty(path));
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(LicenseDigests.class.getName()).log(Level.WARNING, null, ex);
+            }
+            return digests;
+        }
+    }
+
+    /* Location of the index in each jar file or classes directory. */
+    static final String INDEX = "/com/sudolink/eula/license-digests.properties";
+    private static final String ALGORITHM = "SHA-256";
+}
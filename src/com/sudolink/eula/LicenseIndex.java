@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Word index of a license text, so that the text can be searched without
+ * scanning all of it. Words are runs of letters and digits, compared without
+ * regard to case. Every word in the text is given an id, with ids assigned
+ * in alphabetical order so that all the words starting with a prefix have
+ * consecutive ids, and the index keeps the id and start offset of every word
+ * in the text along with, for each id, the positions at which it occurs.
+ *
+ * A query matches a run of consecutive words in the text: each word of the
+ * query must equal the word at the same place in the text, except the last,
+ * which only has to be a prefix of it, so that matches show up while the
+ * query is being typed. Punctuation and line breaks between the words are
+ * ignored.
+ *
+ * An index is immutable once built and may be searched from any thread.
+ *
+ * @author Matthew MacGregor
+ */
+final class LicenseIndex { //deliberately package-private
+
+    private LicenseIndex(String[] words, int[] ids, int[] starts, int[] postingStarts,
+            int[] postings) {
+        this.words = words;
+        this.ids = ids;
+        this.starts = starts;
+        this.postingStarts = postingStarts;
+        this.postings = postings;
+    }
+
+    /**
+     * Indexes a text. This takes time proportional to the length of the text
+     * and should be done off the event dispatch thread.
+     *
+     * @param text The text of the license.
+     * @return The index.
+     */
+    static LicenseIndex build(CharSequence text) {
+        Map<String, Integer> provisional = new HashMap<>();
+        List<String> found = new ArrayList<>();
+        int[] ids = new int[INITIAL_CAPACITY];
+        int[] starts = new int[INITIAL_CAPACITY];
+        int count = 0;
+        StringBuilder word = new StringBuilder();
+        int length = text.length();
+        
+        for (int i = 0; i < length; ) {
+            if (isWordChar(text.charAt(i)) == false) {
+                i++;
+                continue;
+            }
+            int start = i;
+            word.setLength(0);
+            while (i < length && isWordChar(text.charAt(i))) {
+                word.append(Character.toLowerCase(text.charAt(i)));
+                i++;
+            }
+            String key = word.toString();
+            Integer id = provisional.get(key);
+            if (id == null) {
+                id = found.size();
+                provisional.put(key, id);
+                found.add(key);
+            }
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            ids[count] = id;
+            starts[count] = start;
+            count++;
+        }
+        
+        // Renumber the words in alphabetical order.
+        String[] words = found.toArray(new String[found.size()]);
+        Arrays.sort(words);
+        int[] rank = new int[words.length];
+        for (int id = 0; id < words.length; id++) {
+            rank[provisional.get(words[id])] = id;
+        }
+        ids = Arrays.copyOf(ids, count);
+        starts = Arrays.copyOf(starts, count);
+        int[] postingStarts = new int[words.length + 1];
+        for (int p = 0; p < count; p++) {
+            ids[p] = rank[ids[p]];
+            postingStarts[ids[p] + 1]++;
+        }
+        for (int id = 0; id < words.length; id++) {
+            postingStarts[id + 1] += postingStarts[id];
+        }
+        int[] postings = new int[count];
+        int[] next = Arrays.copyOf(postingStarts, words.length);
+        for (int p = 0; p < count; p++) {
+            postings[next[ids[p]]++] = p;
+        }
+        return new LicenseIndex(words, ids, starts, postingStarts, postings);
+    }
+
+    /**
+     * Estimates the memory needed to build the index of a text, including
+     * the arrays that are only used while building it. Licenses average
+     * one word in six chars, and the index needs three ints per word.
+     *
+     * @param length The length of the text in chars.
+     * @return The estimated number of bytes.
+     */
+    static long estimateBytes(int length) {
+        return length * BYTES_PER_CHAR;
+    }
+
+    /**
+     * Finds every match of a query.
+     *
+     * @param query The words to look for.
+     * @return The start and end offset of each match, in the order they
+     * appear in the text, as consecutive pairs. Empty if nothing matches or
+     * the query has no words.
+     */
+    int[] find(String query) {
+        String[] terms = split(query);
+        if (terms.length == 0) {
+            return NO_MATCHES;
+        }
+        // The ids of the words each term may stand for.
+        int[] from = new int[terms.length];
+        int[] to = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            boolean isLast = t == terms.length - 1;
+            from[t] = lowerBound(terms[t]);
+            to[t] = isLast ? lowerBound(terms[t] + Character.MAX_VALUE) : from[t] + 1;
+            if (from[t] == to[t] || (isLast == false && words[from[t]].equals(terms[t]) == false)) {
+                return NO_MATCHES;
+            }
+        }
+        
+        int[] matches = new int[16];
+        int count = 0;
+        int lastLength = terms[terms.length - 1].length();
+        if (to[0] - from[0] == 1) {
+            // A single word to start from: only look where it occurs.
+            for (int i = postingStarts[from[0]]; i < postingStarts[from[0] + 1]; i++) {
+                int p = postings[i];
+                if (isMatch(p, from, to)) {
+                    if (count + 2 > matches.length) {
+                        matches = Arrays.copyOf(matches, matches.length * 2);
+                    }
+                    matches[count++] = starts[p];
+                    matches[count++] = starts[p + terms.length - 1] + lastLength;
+                }
+            }
+        } else {
+            // A one-word prefix, which may stand for many words.
+            for (int p = 0; p < ids.length; p++) {
+                if (ids[p] >= from[0] && ids[p] < to[0]) {
+                    if (count + 2 > matches.length) {
+                        matches = Arrays.copyOf(matches, matches.length * 2);
+                    }
+                    matches[count++] = starts[p];
+                    matches[count++] = starts[p] + lastLength;
+                }
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * @return The number of words in the text.
+     */
+    int getWordCount() {
+        return ids.length;
+    }
+
+    /**
+     * Finds the first match that starts at or after an offset.
+     *
+     * @param matches The result of find().
+     * @param offset An offset in the text.
+     * @return The index of the match, i.e. half the index of its start in
+     * matches, or the number of matches if there is none.
+     */
+    static int nextMatch(int[] matches, int offset) {
+        int low = 0;
+        int high = matches.length / 2;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (matches[middle * 2] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean isMatch(int position, int[] from, int[] to) {
+        if (position + from.length > ids.length) {
+            return false;
+        }
+        for (int t = 1; t < from.length; t++) {
+            int id = ids[position + t];
+            if (id < from[t] || id >= to[t]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The id of the first word that isn't less than key.
+     */
+    private int lowerBound(String key) {
+        int index = Arrays.binarySearch(words, key);
+        return (index >= 0) ? index : -index - 1;
+    }
+
+    /**
+     * Splits a query into words the same way the text is split.
+     */
+    private static String[] split(String query) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= query.length(); i++) {
+            if (i < query.length() && isWordChar(query.charAt(i))) {
+                word.append(Character.toLowerCase(query.charAt(i)));
+            } else if (word.length() > 0) {
+                terms.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /* Every distinct word, lower case, sorted; a word's id is its index. */
+    private final String[] words;
+    /* The id and start offset of each word in the text, in text order. */
+    private final int[] ids;
+    private final int[] starts;
+    /* The positions of the words with id i are postings[postingStarts[i]]
+    up to postings[postingStarts[i + 1]], in text order. */
+    private final int[] postingStarts;
+    private final int[] postings;
+    private static final int[] NO_MATCHES = new int[0];
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long BYTES_PER_CHAR = 4;
+}
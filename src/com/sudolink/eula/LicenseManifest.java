@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads a license manifest: an embedded text resource that lists every
+ * license of an application, so that they can be registered with a single
+ * call to EULA.addLicenses() instead of one addLicense() per license.
+ *
+ * The manifest is UTF-8 text with one license per line, in the order the
+ * licenses are to be displayed. Each line holds the key, the resource path
+ * and optionally the hex SHA-256 digest of the license text, separated by
+ * whitespace:
+ *
+ *      # key           path                    digest
+ *      eula.main       /licenses/eula.txt      9f86d081884c7d65...
+ *      lib.swing       /licenses/swing.txt
+ *
+ * Blank lines and lines starting with '#' are ignored. A digest given in the
+ * manifest takes precedence over the build-time index (see LicenseDigests).
+ *
+ * Paths are class path resource names, looked up with Class.getResource() as
+ * for a single license. The manifest's own path and the license paths in it
+ * are resolved against the package of this class and License
+ * (com/sudolink/eula) unless they start with '/'. A relative license path is
+ * not resolved against the directory of the manifest, so manifests should use
+ * absolute paths.
+ *
+ * Each manifest is parsed once per JVM; later registrations reuse the parsed
+ * licenses, which are immutable.
+ *
+ * @author Matthew MacGregor
+ */
+class LicenseManifest { //deliberately package-private
+
+    private LicenseManifest() {
+    }
+
+    /**
+     * Returns the licenses listed in a manifest.
+     *
+     * @param path The resource path of the manifest.
+     * @return The licenses in display order. The list can't be modified.
+     * @throws IllegalArgumentException If the manifest doesn't exist or a
+     * line can't be parsed.
+     */
+    static List<License> read(String path) {
+        URL url = LicenseManifest.class.getResource(path);
+        if (url == null) {
+            throw new IllegalArgumentException("License manifest not found: " + path);
+        }
+        String cacheKey = url.toExternalForm();
+        List<License> licenses = PARSED.get(cacheKey);
+        if (licenses == null) {
+            try (InputStream is = url.openStream()) {
+                licenses = parse(is, path);
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("License manifest can't be read: " + path, ex);
+            }
+            PARSED.putIfAbsent(cacheKey, licenses);
+        }
+        return licenses;
+    }
+
+    private static List<License> parse(InputStream is, String path) throws IOException {
+        List<License> licenses = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        int number = 0;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException(path + ":" + number
+                        + ": expected key, path and optional digest");
+            }
+            licenses.add(new License(fields[0], fields[1],
+                    (fields.length == 3) ? fields[2] : null));
+        }
+        return Collections.unmodifiableList(licenses);
+    }
+
+    /* Parsed manifests, keyed by URL. */
+    private static final ConcurrentMap<String, List<License>> PARSED = new ConcurrentHashMap<>();
+}
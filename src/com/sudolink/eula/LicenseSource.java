@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the text of a license comes from, for licenses that aren't simply
+ * embedded in the jar file. Add such a license with
+ * EULA.addLicense(String, LicenseSource). The text is decoded as UTF-8, and
+ * may be compressed the same way as embedded licenses (see the README).
+ *
+ * The implementations provided are ClasspathLicenseSource, FileLicenseSource
+ * and UrlLicenseSource. Licenses added with addLicense(String, String) don't
+ * go through a LicenseSource at all.
+ *
+ * The build-time digest index (see the README) only covers licenses embedded
+ * in the jar file. The digest of a license from a LicenseSource is computed
+ * while its text is read for display, so the acceptance records the text
+ * that the user was shown. Before the text has been read, which includes the
+ * check at launch, the digest isn't known and the license is matched by its
+ * key alone. A changed text therefore isn't shown again unless it is added
+ * under a new key.
+ *
+ * @author Matthew MacGregor
+ */
+public interface LicenseSource {
+
+    /**
+     * Opens the license. This may be called more than once, e.g. once to
+     * show the license and once more if the user views it again.
+     *
+     * @return The bytes of the license as stored, or null if there is no such
+     * license. The caller closes the stream.
+     * @throws IOException If the license exists but can't be opened.
+     */
+    public InputStream open() throws IOException;
+
+    /**
+     * A name for the license, such as its URL. Compressed licenses are
+     * recognized by the suffix of the name (".gz" or ".deflate").
+     *
+     * @return The name, never null.
+     */
+    public String getName();
+
+    /**
+     * The number of bytes open() will return, used to size buffers.
+     *
+     * @return The length, or -1 if it isn't known.
+     */
+    public default long getLength() {
+        return -1;
+    }
+
+    /**
+     * The key under which the decoded text may be kept in the LicenseCache.
+     * It must change whenever the text does.
+     *
+     * @return The key, or null if the text must not be cached.
+     */
+    public default String getCacheKey() {
+        return null;
+    }
+
+    /**
+     * Checks that the license exists. The default opens it.
+     *
+     * @return True if open() would return a stream.
+     * @throws IOException If the license can't be opened.
+     */
+    public default boolean exists() throws IOException {
+        try (InputStream in = open()) {
+            return in != null;
+        }
+    }
+}
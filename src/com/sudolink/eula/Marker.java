@@ -23,44 +23,153 @@
  */
 package com.sudolink.eula;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import javax.xml.bind.DatatypeConverter;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The code checks for a file located at the provided path. If the file exists
- * it is deserialized into a HashMap<String, Integer>. Each entry in the map
+ * it is read into a HashMap<String, Integer>. Each entry in the map
  * represents one license. The existence of the entry indicates that the license
  * has been accepted (values are ignored), although it has been designed to
  * allow for more complexity in the future.
  *
+ * Formats are named after their version. The current one, v4, is a small
+ * binary file written with DataOutputStream: the bytes "EULA", the version
+ * byte 4, the number of entries, then each entry as a length-prefixed UTF-8
+ * key followed by its int value and the digest of the license text that was
+ * accepted (empty if unknown). v3 is the same without the digests, and is
+ * still read as it is; its keys gain digests with the next commit. Files in
+ * the older v2 (Base64 serialized map) and v1 (serialized map) formats are
+ * still read and are rewritten as v4 the first time they're read.
+ *
+ * Writes never modify the marker file in place. The new content is written to
+ * a temporary file in the same directory, forced to disk and then moved over
+ * the marker file, so a crash leaves either the old or the new file behind.
+ * A copy of the last good content is kept next to the marker file with the
+ * suffix ".bak" and is used to restore the marker file if it can't be read.
+ *
+ * Several processes may share one marker file. Reads take no lock, since the
+ * file is only ever replaced as a whole. Writes take an exclusive lock on a
+ * separate lock file (the marker path with the suffix ".lock"), read the
+ * marker again under the lock and apply the keys that have been put since, so
+ * that concurrent commits from different processes don't lose each other's
+ * keys.
+ *
+ * The file is read at most once per change on disk: the modification time and
+ * size of the file are remembered after each read or write, and the in-memory
+ * map is reused for as long as they still match. Call reload() to force a
+ * fresh read.
+ *
+ * Marker may be shared between threads. Queries read an immutable snapshot of
+ * the map that is published through a volatile field, so they never block.
+ * Changes are made to a private copy under the Marker's monitor. The snapshot
+ * holds the map as of the last read or commit, which is shared from one
+ * snapshot to the next, plus the keys that have been put or revoked since.
+ * Each change publishes a new snapshot that copies only the latter, and the
+ * whole map is copied once per commit.
+ *
+ * For very large numbers of keys, setIndexed(true) switches to a MarkerIndex:
+ * a sorted, memory-mapped snapshot plus a journal, both next to the marker
+ * path. Lookups then search the snapshot in place instead of reading the
+ * whole file, and commits append only the keys that have been put or revoked,
+ * along with the time of the commit. In this mode the Marker's own snapshot
+ * holds only the keys that haven't been committed yet.
+ *
  * @author Matthew MacGregor
  */
 class Marker { //deliberately package-private
 
     public Marker(String path) {
         marker = new HashMap<>();
+        digests = new HashMap<>();
+        pending = new HashMap<>();
+        pendingDigests = new HashMap<>();
+        revoked = new HashSet<>();
+        snapshot = Snapshot.NONE;
+        queueLock = new Object();
         this.path = path;
     }
 
-    public void setPath(String path) {
+    public synchronized void setPath(String path) {
         this.path = path;
+        snapshot = Snapshot.NONE;
+        if (index != null) {
+            index = new MarkerIndex(path);
+        }
     }
 
     public String getPath() {
         return path;
     }
 
+    /**
+     * Switches between the single marker file and the indexed store (see
+     * MarkerIndex). The first time the indexed store is used, the content of
+     * an existing marker file is copied into it. Keys that have been put but
+     * not committed are kept either way.
+     *
+     * @param indexed True to use the indexed store.
+     */
+    public synchronized void setIndexed(boolean indexed) {
+        if (indexed == (index != null)) {
+            return;
+        }
+        index = indexed ? new MarkerIndex(path) : null;
+        marker = new HashMap<>(pending);
+        digests = new HashMap<>();
+        applyPending();
+        snapshot = Snapshot.NONE;
+        publish(Snapshot.NONE);
+    }
+
+    /**
+     * Sets the listener that receives the timings of reads and commits.
+     *
+     * @param listener The listener, or MetricsListener.NONE.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        metrics = listener;
+    }
+
     /**
      * Checks if the EULA for the given key has been accepted by the user.
      *
@@ -69,34 +178,180 @@ class Marker { //deliberately package-private
      */
     public boolean isEulaAccepted(String key) {
         
-        if( read() ) {
-            return marker.containsKey(key);
+        Lookup current = lookup();
+        if( current.isRead() ) {
+            return current.value(key) != null;
         }    
  
         return false;
     }
 
     /**
-     * Writes the marker to disk.
+     * Checks if the EULA for the given key has been accepted by the user, and
+     * that the accepted license text had the given digest. Acceptances that
+     * were recorded without a digest match any digest.
      *
-     * @return True if the write succeeds.
+     * @param key
+     * @param digest The digest of the license text, or null to ignore it.
+     * @return
      */
-    public boolean commit() {
+    public boolean isEulaAccepted(String key, String digest) {
+        
+        Lookup current = lookup();
+        if( current.isRead() ) {
+            return isMatch(current, key, digest);
+        }
+        
+        return false;
+    }
+
+    /**
+     * Returns the subset of the given keys that have been accepted by the
+     * user with a matching digest (see isEulaAccepted(String, String)). The
+     * marker file is read at most once for the whole query.
+     *
+     * @param digests The keys to check, each mapped to the digest of its
+     * license text or null.
+     * @return The accepted keys. Never null.
+     */
+    public Set<String> acceptedKeys(Map<String, String> digests) {
+        Set<String> accepted = new HashSet<>();
+        Lookup current = lookup();
+        if( current.isRead() ) {
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                if (isMatch(current, entry.getKey(), entry.getValue())) {
+                    accepted.add(entry.getKey());
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the subset of the given keys that have been accepted by the
+     * user. The marker file is read at most once for the whole query.
+     *
+     * @param keys The keys to check.
+     * @return The accepted keys. Never null.
+     */
+    public Set<String> acceptedKeys(Collection<String> keys) {
+        Set<String> accepted = new HashSet<>();
+        Lookup current = lookup();
+        if( current.isRead() ) {
+            for (String key : keys) {
+                if (current.value(key) != null) {
+                    accepted.add(key);
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Returns the keys from the given collection that have not been accepted
+     * by the user, in their original order. The marker file is read at most
+     * once for the whole query.
+     *
+     * @param keys The keys to check.
+     * @return The unaccepted keys. Never null.
+     */
+    public List<String> unacceptedOf(Collection<String> keys) {
+        List<String> unaccepted = new ArrayList<>();
+        Lookup current = lookup();
+        for (String key : keys) {
+            if (current.isRead() == false || current.value(key) == null) {
+                unaccepted.add(key);
+            }
+        }
+        return unaccepted;
+    }
+
+    /**
+     * Discards the cached state and reads the marker file again.
+     *
+     * @return True if the marker file was read successfully.
+     */
+    public synchronized boolean reload() {
+        if (index != null) {
+            return lookup().isRead();
+        }
+        snapshot = Snapshot.NONE;
+        return load().isRead;
+    }
+
+    /**
+     * Writes the marker to disk. If nothing has been put or revoked since the
+     * last commit, there is nothing to write and the file isn't touched.
+     *
+     * @return True if the write succeeds, or if there was nothing to write.
+     */
+    public synchronized boolean commit() {
+        if (pending.isEmpty() && pendingDigests.isEmpty() && revoked.isEmpty()) {
+            return true;
+        }
         try {
+            long start = System.nanoTime();
             write();
+            metrics.phaseCompleted(MetricsListener.Phase.COMMIT, path,
+                    System.nanoTime() - start, marker.size());
         } catch (IOException ex) {
+            Logger.getLogger(Marker.class.getName()).log(Level.WARNING,
+                    "Marker " + path + " could not be written", ex);
             return false;
         }
         return true;
     }
 
+    /**
+     * Writes the marker to disk on a background thread. All markers share a
+     * single writer thread. Commits that are requested while an earlier one
+     * is still waiting to be written are folded into it, so several calls in
+     * a row cost a single write. Pending writes are flushed when the JVM
+     * shuts down.
+     *
+     * @return A future that completes with true once the keys that were put
+     * before this call have been written, or with false if the write failed.
+     */
+    public CompletableFuture<Boolean> commitAsync() {
+        CompletableFuture<Boolean> future;
+        synchronized (queueLock) {
+            if (queuedCommit != null) {
+                // Not started yet, so it will include everything put so far.
+                return queuedCommit;
+            }
+            future = new CompletableFuture<>();
+            queuedCommit = future;
+        }
+        
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                CompletableFuture<Boolean> taken;
+                synchronized (queueLock) {
+                    taken = queuedCommit;
+                    queuedCommit = null;
+                }
+                if (taken != null) {
+                    taken.complete(commit());
+                }
+            }
+        };
+        try {
+            Writer.EXECUTOR.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // The JVM is shutting down, write it now.
+            task.run();
+        }
+        return future;
+    }
+
     /**
      * Adds a key to the map and commits it in one step.
      *
      * @param key
      * @return True if the write succeeds.
      */
-    public boolean commit(String key) {
+    public synchronized boolean commit(String key) {
         put(key);
         return commit();
     }
@@ -107,8 +362,95 @@ class Marker { //deliberately package-private
      * @param key The key that is being added. Duplicate keys will overwrite one
      * another.
      */
-    public void put(String key) {
+    public synchronized void put(String key) {
+        revoked.remove(key);
         marker.put(key, EULA_ACCEPTED);
+        pending.put(key, EULA_ACCEPTED);
+        digests.remove(key);
+        pendingDigests.put(key, null);
+        publishPending(snapshot);
+    }
+
+    /**
+     * Adds a key to the map with the default EULA_ACCEPTED code, along with
+     * the digest of the license text that has been accepted.
+     *
+     * @param key The key that is being added. Duplicate keys will overwrite one
+     * another.
+     * @param digest The digest of the license text, or null if unknown.
+     */
+    public synchronized void put(String key, String digest) {
+        put(key);
+        if (digest != null) {
+            digests.put(key, digest);
+            pendingDigests.put(key, digest);
+            publishPending(snapshot);
+        }
+    }
+
+    /**
+     * Withdraws the acceptance of a key, so that the user is asked to accept
+     * the license again. Like put(), this takes effect on disk with the next
+     * commit.
+     *
+     * @param key The key that is being revoked.
+     */
+    public synchronized void revoke(String key) {
+        marker.remove(key);
+        digests.remove(key);
+        pending.remove(key);
+        // A key that is put again after this starts without a digest.
+        pendingDigests.put(key, null);
+        revoked.add(key);
+        publishPending(snapshot);
+    }
+
+    /**
+     * Fetches the time at which the given key was accepted. This is only
+     * recorded by the indexed store (see setIndexed()).
+     *
+     * @param key The key to fetch.
+     * @return The time of the commit that recorded the acceptance, in
+     * milliseconds since the epoch, or UNKNOWN_TIME if the key hasn't been
+     * accepted, hasn't been committed yet or the time wasn't recorded.
+     */
+    public long getAcceptedTime(String key) {
+        return peek().time(key);
+    }
+
+    /**
+     * Adds several keys with the default EULA_ACCEPTED code, along with the
+     * digests of the license texts that have been accepted. The snapshot that
+     * readers see is published once for all of them.
+     *
+     * @param accepted The keys that are being added, each mapped to its
+     * digest or null if unknown.
+     */
+    public synchronized void putAll(Map<String, String> accepted) {
+        for (Map.Entry<String, String> entry : accepted.entrySet()) {
+            String key = entry.getKey();
+            String digest = entry.getValue();
+            revoked.remove(key);
+            marker.put(key, EULA_ACCEPTED);
+            pending.put(key, EULA_ACCEPTED);
+            if (digest != null) {
+                digests.put(key, digest);
+            } else {
+                digests.remove(key);
+            }
+            pendingDigests.put(key, digest);
+        }
+        publishPending(snapshot);
+    }
+
+    /**
+     * Fetches the digest that was recorded for the given key.
+     *
+     * @param key The key to fetch.
+     * @return The digest, or null if none was recorded.
+     */
+    public String getDigest(String key) {
+        return peek().digest(key);
     }
 
     /**
@@ -118,8 +460,11 @@ class Marker { //deliberately package-private
      * @param key The key to be stored.
      * @param value The value for that key.
      */
-    public void put(String key, int value) {
+    public synchronized void put(String key, int value) {
+        revoked.remove(key);
         marker.put(key, value);
+        pending.put(key, value);
+        publishPending(snapshot);
     }
 
     /**
@@ -131,7 +476,7 @@ class Marker { //deliberately package-private
     public int get(String key) {
         Integer val;
         try {
-            val = marker.get(key);
+            val = peek().value(key);
         } catch (ClassCastException e) {
             val = EULA_UNKNOWN;
         }
@@ -140,7 +485,119 @@ class Marker { //deliberately package-private
     }
 
     /**
-     * Reads the marker file into memory.
+     * Returns what queries should look keys up in: the snapshot in the
+     * default mode, or the uncommitted keys over the current view of the
+     * index in indexed mode.
+     */
+    private Lookup lookup() {
+        MarkerIndex store = index;
+        if (store == null) {
+            return load();
+        }
+        
+        try {
+            if (store.exists() == false && new File(path).exists()) {
+                // Carry the marker file over to the index.
+                synchronized (this) {
+                    write();
+                }
+            }
+            MarkerIndex.View view = store.view();
+            return new Overlay(snapshot, view);
+        } catch (IOException ex) {
+            Logger.getLogger(Marker.class.getName()).log(Level.WARNING,
+                    "Marker index " + path + " could not be read", ex);
+            return Snapshot.NONE;
+        }
+    }
+
+    /**
+     * Like lookup(), but doesn't read anything in the default mode.
+     */
+    private Lookup peek() {
+        return (index != null) ? lookup() : snapshot;
+    }
+
+    /**
+     * True if the key has been accepted with the given digest. Either digest
+     * being unknown counts as a match.
+     */
+    private static boolean isMatch(Lookup lookup, String key, String digest) {
+        if (lookup.value(key) == null) {
+            return false;
+        }
+        String accepted = lookup.digest(key);
+        return digest == null || accepted == null || accepted.equals(digest);
+    }
+
+    /**
+     * Returns the published snapshot, reading the marker file first unless
+     * the snapshot is still current, i.e. the file's modification time and
+     * size haven't changed since it was last read or written. Readers never
+     * take a lock when the snapshot is current.
+     *
+     * @return The current snapshot.
+     */
+    private Snapshot load() {
+
+        String markerPath = path;
+        if (markerPath == null) {
+            throw new NullPointerException("Path to eula acceptance cannot be null");
+        }
+
+        File inputFile = new File(markerPath);
+        Snapshot current = snapshot;
+        if (current.isCurrent(inputFile)) {
+            return current;
+        }
+
+        synchronized (this) {
+            // Another thread may have read the file in the meantime.
+            current = snapshot;
+            if (current.isCurrent(inputFile)) {
+                return current;
+            }
+            long start = System.nanoTime();
+            remember(inputFile, read());
+            current = snapshot;
+            metrics.phaseCompleted(MetricsListener.Phase.MARKER_READ, markerPath,
+                    System.nanoTime() - start, current.values.size());
+            return current;
+        }
+    }
+
+    /**
+     * Publishes the in-memory map along with the current modification time
+     * and size of the marker file, so that load() can tell whether the file
+     * has changed.
+     */
+    private void remember(File f, boolean result) {
+        snapshot = Snapshot.copyOf(marker, digests, pending, pendingDigests, revoked, result,
+                f.lastModified(), f.length());
+    }
+
+    /**
+     * Publishes the in-memory map, keeping the file state of the previous
+     * snapshot.
+     */
+    private void publish(Snapshot previous) {
+        snapshot = Snapshot.copyOf(marker, digests, pending, pendingDigests, revoked,
+                previous.isRead, previous.modified, previous.size);
+    }
+
+    /**
+     * Publishes the keys that have been put or revoked since the last read
+     * or commit over the map of the previous snapshot, which is shared
+     * rather than copied. Only valid while the in-memory map differs from
+     * that one by those keys alone, i.e. after put() or revoke().
+     */
+    private void publishPending(Snapshot previous) {
+        snapshot = previous.withPending(pending, pendingDigests, revoked);
+    }
+
+    /**
+     * Reads the marker file into memory. Keys that have been put but not yet
+     * committed are kept.
      *
      * @throws IOException if the read fails.
      */
@@ -155,31 +612,90 @@ class Marker { //deliberately package-private
         
         if (inputFile.exists()) {
 
-            // Catch IOExceptions specifically, because these indicate a kind of
-            // failure that's different from attempts to deserialize the file. No
-            // need to keep trying in this case.
-            try {
-                // First try reading the file from the Base64 implementation
-                didSucceed = readV2(inputFile);
-                
-                if( didSucceed == false ) {
-                    // Fall back to the older binary implementation
-                    didSucceed = readV1(inputFile); 
-                }
-                
-            } catch (IOException ex) {
-                
-                didSucceed = false; //redundant, but for readability
+            int version = readAnyVersion(inputFile);
+            didSucceed = version != 0;
             
+            if( didSucceed == false ) {
+                // The file is damaged. Rather than losing every acceptance,
+                // go back to the last good copy.
+                didSucceed = recover();
+            } else if( version < VERSION_NO_DIGESTS ) {
+                // Bring the file up to the latest version.
+                try {
+                    write();
+                } catch (IOException ex) {
+                    // The content has been read, it can be upgraded later.
+                    Logger.getLogger(Marker.class.getName()).log(Level.WARNING, null, ex);
+                }
             }
         }
-
+        
+        applyPending();
         return didSucceed;
 
     }
 
     /**
-     * Writes the in-memory map back to disk.
+     * Reads the marker file in whichever format it has been written, without
+     * upgrading it. Package-private for the benchmarks.
+     *
+     * @param f The marker file.
+     * @return The version of the format that was read (1 to 4), or 0 if the
+     * file couldn't be read in any format.
+     */
+    int readAnyVersion(File f) {
+        // Catch IOExceptions specifically, because these indicate a kind of
+        // failure that's different from attempts to deserialize the file. No
+        // need to keep trying in this case.
+        try {
+            // First try reading the file in the current format, or v3
+            int version = readBinary(f);
+            if( version != 0 ) {
+                return version;
+            }
+            // Fall back to the Base64 implementation
+            if( readV2(f) ) {
+                return 2;
+            }
+            // Fall back to the older binary implementation
+            if( readV1(f) ) {
+                return 1;
+            }
+        } catch (IOException ex) {
+            // Fall through, the file can't be read.
+        }
+        return 0;
+    }
+
+    /**
+     * Restores the marker from the backup copy, if there is a readable one.
+     *
+     * @return True if the marker has been restored.
+     */
+    private boolean recover() {
+        File backup = new File(path + BACKUP_SUFFIX);
+        if (backup.exists() == false) {
+            return false;
+        }
+        
+        try {
+            if (readBinary(backup) != 0) {
+                Logger.getLogger(Marker.class.getName()).log(Level.WARNING,
+                        "Marker {0} could not be read, restored from backup", path);
+                write();
+                return true;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Marker.class.getName()).log(Level.WARNING, null, ex);
+        }
+        return false;
+    }
+
+    /**
+     * Writes the in-memory map back to disk, then refreshes the backup copy.
+     * The marker is read again under an exclusive lock first, and the keys
+     * that have been put since the last commit are applied on top, so keys
+     * committed by other processes in the meantime are kept.
      *
      * @throws IOException If the write fails for any reason.
      */
@@ -189,21 +705,199 @@ class Marker { //deliberately package-private
             throw new NullPointerException("Path to eula acceptance cannot be null");
         }
         
-        File f = new File(path);
+        File f = new File(path).getAbsoluteFile();
         
         // Create the needed directories if they don't exist.
         if ( ! f.exists() ) {
             f.getParentFile().mkdirs();
         }
 
-        String b64string;
+        // File locks are held by the whole JVM, so threads in this process
+        // take turns before asking for the lock.
+        synchronized (monitorFor(f)) {
+            Path lockPath = Paths.get(f.getPath() + LOCK_SUFFIX);
+            try (FileChannel channel = FileChannel.open(lockPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed.
+                channel.lock();
+                
+                MarkerIndex store = index;
+                if (store != null) {
+                    writeIndexed(f, store);
+                    return;
+                }
+                
+                reread(f);
+                applyPending();
+                
+                byte[] bytes = encode();
+                replace(f.toPath(), bytes);
+                // The in-memory map now matches the file, no need to read it back.
+                remember(f, true);
+                replace(Paths.get(f.getPath() + BACKUP_SUFFIX), bytes);
+                
+                clearPending();
+            }
+        }
+
+    }
+
+    /**
+     * Appends the keys that have been put or revoked since the last commit to
+     * the indexed store. If the store doesn't exist yet, the content of the
+     * marker file is appended along with them. Must be called under the lock
+     * taken by write().
+     */
+    private void writeIndexed(File f, MarkerIndex store) throws IOException {
+        Map<String, Integer> values = pending;
+        Map<String, String> entryDigests = new HashMap<>();
+        if (store.exists() == false && f.exists() && readAnyVersion(f) != 0) {
+            applyPending();
+            values = marker;
+            entryDigests = digests;
+        } else {
+            // put(key, int) leaves the digest alone, so keep the stored one.
+            MarkerIndex.View view = store.view();
+            for (String key : pending.keySet()) {
+                String digest = pendingDigests.containsKey(key)
+                        ? pendingDigests.get(key) : view.digest(key);
+                if (digest != null) {
+                    entryDigests.put(key, digest);
+                }
+            }
+        }
+        if (values.isEmpty() == false || revoked.isEmpty() == false) {
+            store.append(values, entryDigests, revoked, System.currentTimeMillis());
+        }
+        
+        marker = new HashMap<>();
+        digests = new HashMap<>();
+        clearPending();
+        publish(snapshot);
+    }
+
+    /**
+     * Forgets the keys that have been put or revoked, once they have been
+     * committed. The maps are replaced rather than cleared, since a cleared
+     * HashMap keeps its table and each put copies them (see publishPending()).
+     */
+    private void clearPending() {
+        pending = new HashMap<>();
+        pendingDigests = new HashMap<>();
+        revoked = new HashSet<>();
+    }
+
+    /**
+     * Replaces the in-memory map with the current content of the marker file,
+     * falling back to the backup copy. If neither can be read, the in-memory
+     * map is left as it is.
+     */
+    private void reread(File f) {
+        if (f.exists() == false) {
+            marker = new HashMap<>();
+            digests = new HashMap<>();
+        } else if (readAnyVersion(f) == 0) {
+            try {
+                File backup = new File(f.getPath() + BACKUP_SUFFIX);
+                if (backup.exists()) {
+                    readBinary(backup);
+                }
+            } catch (IOException ex) {
+                // Keep what's in memory.
+            }
+        }
+    }
+
+    /**
+     * Applies the keys that have been put or revoked since the last commit to
+     * the in-memory map.
+     */
+    private void applyPending() {
+        marker.keySet().removeAll(revoked);
+        digests.keySet().removeAll(revoked);
+        marker.putAll(pending);
+        for (Map.Entry<String, String> entry : pendingDigests.entrySet()) {
+            if (entry.getValue() == null) {
+                digests.remove(entry.getKey());
+            } else {
+                digests.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Encodes the in-memory map in the current file format. Package-private
+     * for the benchmarks.
+     */
+    byte[] encode() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ObjectOutputStream os = new ObjectOutputStream(baos)) {
-            os.writeObject(marker);
-            b64string = DatatypeConverter.printBase64Binary(baos.toByteArray());
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(marker.size());
+            for (Map.Entry<String, Integer> entry : marker.entrySet()) {
+                String digest = digests.get(entry.getKey());
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+                out.writeUTF(digest != null ? digest : "");
+            }
         }
-        Files.write(Paths.get(path), b64string.getBytes());
+        return baos.toByteArray();
+    }
 
+    /**
+     * Returns the object that threads in this JVM synchronize on before
+     * locking the given marker file.
+     */
+    static Object monitorFor(File f) {
+        Object monitor = MONITORS.get(f.getPath());
+        if (monitor == null) {
+            Object created = new Object();
+            monitor = MONITORS.putIfAbsent(f.getPath(), created);
+            if (monitor == null) {
+                monitor = created;
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Replaces the content of a file without ever leaving it partially
+     * written: the bytes go to a temporary file in the same directory, which
+     * is forced to disk and then moved over the target.
+     *
+     * @param target The file to replace.
+     * @param bytes The new content.
+     * @throws IOException If the file can't be written or moved.
+     */
+    private static void replace(Path target, byte[] bytes) throws IOException {
+        Path dir = target.getParent();
+        Path temp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        
+        // Make the rename itself durable. Not every platform allows a
+        // directory to be opened, in which case there's nothing more to do.
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            // Ignored, the file itself has already been forced to disk.
+        }
     }
 
     /**
@@ -239,24 +933,21 @@ class Marker { //deliberately package-private
      * @return True if the read operation has completed successfully.
      * @throws IOException If there are problems reading the file that aren't 
      * related to the deserialization. 
-     * @deprecated Always use readV2.
+     * @deprecated Always use readBinary.
      */
     @Deprecated
     private boolean readV1(File f) throws IOException {
 
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
             marker = (HashMap<String, Integer>) ois.readObject();
-            // Now that we've got the data, overwrite the file to bring
-            // it up to the latest version.
-            write();
+            digests = new HashMap<>();
             return true;
 
         } catch (  ClassNotFoundException ex) {
             
             //If we've gotten to this point there's a real problem with
-            //the file. We'd be better off killing it and starting over.
-           
-            Files.delete(Paths.get(f.getAbsolutePath()));
+            //the file. It's left alone so that the backup can be restored
+            //over it.
            
         }
 
@@ -264,16 +955,74 @@ class Marker { //deliberately package-private
     }
     
     /**
-     * This is the new method for reading the marker file. Markers were
+     * This is the current method for reading the marker file. If the file
+     * starts with the v4 or v3 header, the entries are read with
+     * DataInputStream; no object deserialization is involved.
+     *
+     * @param f The marker file.
+     * @return The version that was read (3 or 4), or 0 if the file isn't in
+     * either of these formats.
+     * @throws IOException If there are problems reading the file, including
+     * a file that has been truncated or has bytes after the last entry.
+     */
+    private int readBinary(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            
+            byte[] header = new byte[MAGIC.length];
+            try {
+                in.readFully(header);
+            } catch (EOFException ex) {
+                // Too short to be a binary file.
+                return 0;
+            }
+            if (Arrays.equals(header, MAGIC) == false) {
+                return 0;
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION_NO_DIGESTS && version != VERSION) {
+                return 0;
+            }
+            
+            int count = in.readInt();
+            if (count < 0) {
+                return 0;
+            }
+            Map<String, Integer> entries = new HashMap<>();
+            Map<String, String> entryDigests = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                entries.put(key, in.readInt());
+                if (version >= VERSION) {
+                    String digest = in.readUTF();
+                    if (digest.isEmpty() == false) {
+                        entryDigests.put(key, digest);
+                    }
+                }
+            }
+            if (in.read() != -1) {
+                // The count doesn't cover the whole file, so it's damaged.
+                throw new IOException("Unexpected bytes after the last entry of " + f);
+            }
+            marker = entries;
+            digests = entryDigests;
+            return version;
+        }
+    }
+    
+    /**
+     * This is the previous method for reading the marker file. Markers were
      * serialized to binary using ObjectOutputStream then encoded to b64.
      * If the file is appropriately formatted (v2), this method will read this 
-     * format.
+     * format. Provided for backwards compatibility.
      * 
      * @param f The marker file.
      * @return True if the read operation has completed successfully.
      * @throws IOException If there are problems reading the file that aren't 
      * related to the deserialization. 
+     * @deprecated Always use readBinary.
      */
+    @Deprecated
     private boolean readV2(File f) throws IOException {
         // We're going to attempt to read the marker file using the newer Base64
         // logic: basically, decode b64 -> binary, then deserialize the bytes.
@@ -281,15 +1030,17 @@ class Marker { //deliberately package-private
             
             String s = new String(Files.readAllBytes(Paths.get(f.getAbsolutePath())));
             // Convert the b64 string into a byte array (stream) 
-            ByteArrayInputStream bais = new ByteArrayInputStream(DatatypeConverter.parseBase64Binary(s));
+            ByteArrayInputStream bais = new ByteArrayInputStream(Base64.getDecoder().decode(s.trim()));
             // Deserialize into an object again
             try (ObjectInputStream ois2 = new ObjectInputStream(bais)) {
                 marker = (HashMap<String, Integer>) ois2.readObject();
+                digests = new HashMap<>();
             } 
             // Success!
             return true;
             
-        } catch ( ClassNotFoundException | ArrayIndexOutOfBoundsException ex) {
+        } catch ( ClassNotFoundException | ArrayIndexOutOfBoundsException
+                | IllegalArgumentException | StreamCorruptedException ex) {
             // Any number of things might have gone wrong, but we actually don't
             // care which bad thing happened. In the case of failure we should
             // try again with the older version.
@@ -299,11 +1050,258 @@ class Marker { //deliberately package-private
         
     }
 
+    /**
+     * What queries look keys up in.
+     */
+    interface Lookup {
+
+        /**
+         * @return True if the marker was read successfully.
+         */
+        boolean isRead();
+
+        /**
+         * @return The value of the key, or null if it hasn't been accepted.
+         */
+        Integer value(String key);
+
+        /**
+         * @return The digest of the key, or null if unknown.
+         */
+        String digest(String key);
+
+        /**
+         * @return The time the key was accepted, or UNKNOWN_TIME.
+         */
+        long time(String key);
+    }
+
+    /**
+     * Immutable copy of the maps, along with the state of the marker file
+     * they were read from or written to. The keys that have been put or
+     * revoked since the maps were copied are kept on top of them, and take
+     * precedence.
+     */
+    private static final class Snapshot implements Lookup {
+
+        /* Takes the maps as they are, see copyOf(). */
+        private Snapshot(Map<String, Integer> values, Map<String, String> digests,
+                Map<String, Integer> pending, Map<String, String> pendingDigests,
+                Set<String> revoked, boolean isRead, long modified, long size) {
+            this.values = values;
+            this.digests = digests;
+            this.pending = pending;
+            this.pendingDigests = pendingDigests;
+            this.revoked = revoked;
+            this.isRead = isRead;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        /**
+         * A snapshot of copies of the given maps.
+         */
+        static Snapshot copyOf(Map<String, Integer> values, Map<String, String> digests,
+                Map<String, Integer> pending, Map<String, String> pendingDigests,
+                Set<String> revoked, boolean isRead, long modified, long size) {
+            return new Snapshot(Collections.unmodifiableMap(new HashMap<>(values)),
+                    Collections.unmodifiableMap(new HashMap<>(digests)),
+                    new HashMap<>(pending), new HashMap<>(pendingDigests),
+                    new HashSet<>(revoked), isRead, modified, size);
+        }
+
+        /**
+         * A snapshot of the same maps with other uncommitted keys, which are
+         * copied.
+         */
+        Snapshot withPending(Map<String, Integer> pending, Map<String, String> pendingDigests,
+                Set<String> revoked) {
+            return new Snapshot(values, digests, new HashMap<>(pending),
+                    new HashMap<>(pendingDigests), new HashSet<>(revoked),
+                    isRead, modified, size);
+        }
+
+        /**
+         * True if the key has been put or revoked since the maps were copied.
+         */
+        boolean isPending(String key) {
+            return pending.containsKey(key) || revoked.contains(key);
+        }
+
+        /**
+         * True if the marker file hasn't changed since this snapshot was
+         * taken.
+         */
+        boolean isCurrent(File f) {
+            return modified != STALE
+                    && f.lastModified() == modified
+                    && f.length() == size;
+        }
+
+        @Override
+        public boolean isRead() {
+            return isRead;
+        }
+
+        @Override
+        public Integer value(String key) {
+            if (revoked.contains(key)) {
+                return null;
+            }
+            Integer value = pending.get(key);
+            return (value != null) ? value : values.get(key);
+        }
+
+        @Override
+        public String digest(String key) {
+            if (pendingDigests.containsKey(key)) {
+                // A null digest has been cleared.
+                return pendingDigests.get(key);
+            }
+            return digests.get(key);
+        }
+
+        @Override
+        public long time(String key) {
+            // The marker file doesn't record times.
+            return UNKNOWN_TIME;
+        }
+
+        /* The maps as of the last read or commit, shared between snapshots. */
+        final Map<String, Integer> values;
+        final Map<String, String> digests;
+        /* Keys put and revoked since then, see Marker.pending. */
+        final Map<String, Integer> pending;
+        final Map<String, String> pendingDigests;
+        final Set<String> revoked;
+        /* True if the marker file was read successfully. */
+        final boolean isRead;
+        final long modified;
+        final long size;
+
+        /* Never matches the marker file, so that it will be read. */
+        static final long STALE = -1;
+        static final Snapshot NONE = new Snapshot(
+                Collections.<String, Integer>emptyMap(),
+                Collections.<String, String>emptyMap(),
+                Collections.<String, Integer>emptyMap(),
+                Collections.<String, String>emptyMap(),
+                Collections.<String>emptySet(), false, STALE, STALE);
+    }
+
+    /**
+     * The keys that haven't been committed yet, over the indexed store.
+     */
+    private static final class Overlay implements Lookup {
+
+        Overlay(Snapshot uncommitted, MarkerIndex.View view) {
+            this.uncommitted = uncommitted;
+            this.view = view;
+        }
+
+        @Override
+        public boolean isRead() {
+            return view.isRead();
+        }
+
+        @Override
+        public Integer value(String key) {
+            if (uncommitted.revoked.contains(key)) {
+                return null;
+            }
+            Integer value = uncommitted.value(key);
+            return (value != null) ? value : view.value(key);
+        }
+
+        @Override
+        public String digest(String key) {
+            if (uncommitted.isPending(key)) {
+                // put(key) clears the digest.
+                return uncommitted.digest(key);
+            }
+            return view.digest(key);
+        }
+
+        @Override
+        public long time(String key) {
+            if (uncommitted.isPending(key)) {
+                return UNKNOWN_TIME;
+            }
+            return view.time(key);
+        }
+
+        private final Snapshot uncommitted;
+        private final MarkerIndex.View view;
+    }
+
+    /**
+     * Holds the background writer used by commitAsync(). The thread is only
+     * started the first time an asynchronous commit is requested.
+     */
+    private static class Writer {
+
+        static final ExecutorService EXECUTOR = start();
+
+        private static ExecutorService start() {
+            final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "EULA marker writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread("EULA marker flush") {
+                @Override
+                public void run() {
+                    executor.shutdown();
+                    try {
+                        executor.awaitTermination(FLUSH_TIMEOUT, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        // Exiting anyway.
+                    }
+                }
+            });
+            return executor;
+        }
+    }
+
     /* Path to the marker file. */
-    private String path;
+    private volatile String path;
+    /* Receives the timings of reads and commits. */
+    private volatile MetricsListener metrics = MetricsListener.NONE;
     /* Individual licenses are identified in a dictionary. */
     private Map<String, Integer> marker;
+    /* Digest of the accepted license text, for the keys where it's known. */
+    private Map<String, String> digests;
+    /* Keys and digests that have been put since the last commit. A null
+     * digest means the digest has been cleared. */
+    private Map<String, Integer> pending;
+    private Map<String, String> pendingDigests;
+    /* Keys that have been revoked since the last commit. */
+    private Set<String> revoked;
+    /* The indexed store, or null when the marker file is used. */
+    private volatile MarkerIndex index;
+    /* Copy of the maps that readers use, see Snapshot. */
+    private volatile Snapshot snapshot;
+    /* The commit that is waiting for the writer thread, if any. Guarded by
+    queueLock rather than the Marker's monitor, which commit() holds while
+    writing. Not an AtomicReference, whose VarHandle would be initialized on
+    every launch. */
+    private CompletableFuture<Boolean> queuedCommit;
+    private final Object queueLock;
     /* Constants */
+    private static final byte[] MAGIC = {'E', 'U', 'L', 'A'};
+    private static final int VERSION = 4;
+    private static final int VERSION_NO_DIGESTS = 3;
+    private static final String BACKUP_SUFFIX = ".bak";
+    private static final String LOCK_SUFFIX = ".lock";
+    /* Seconds to wait for pending commits when the JVM shuts down. */
+    private static final long FLUSH_TIMEOUT = 10;
+    /* One monitor per marker file, see monitorFor(). */
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<>();
     private static final int EULA_ACCEPTED = 1010;
     private static final int EULA_UNKNOWN = 0;
+    /* See getAcceptedTime(). */
+    static final long UNKNOWN_TIME = -1;
 }
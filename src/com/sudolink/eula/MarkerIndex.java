@@ -0,0 +1,710 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Marker storage for very large numbers of keys, kept as a journal. Instead
+ * of one file that is rewritten as a whole on every commit, the keys are kept
+ * in files next to the marker path:
+ *
+ * - "<path>.idx" is the last snapshot: the accepted keys sorted by their
+ * UTF-8 bytes, preceded by a table of record offsets. It is memory-mapped and
+ * searched in place, so a lookup touches O(log n) pages and never builds a
+ * map of the whole file.
+ *
+ * - "<path>.log" is the journal since the snapshot: every acceptance or
+ * revocation, with the time it was committed, appended one record at a time.
+ * A commit costs one append, however many keys have been recorded before. The
+ * journal is small and readers replay it into memory on top of the snapshot.
+ *
+ * - "<path>.audit" keeps the journal records that have been folded into a
+ * snapshot, so that the full history survives compaction. It is only ever
+ * appended to and is never read by the marker itself; run this class with the
+ * marker path as its argument to print the history.
+ *
+ * Once the journal is longer than COMPACT_THRESHOLD bytes, it is folded into a
+ * new snapshot, which replaces the old one by an atomic rename, and the
+ * journal is emptied. Every file starts with a 4 byte magic and a version
+ * byte. Records are a type byte (ACCEPTED or REVOKED), a u2 length and UTF-8
+ * key, an int value, a long time in milliseconds since the epoch, and a u2
+ * length and UTF-8 digest (empty if unknown).
+ *
+ * Lookups go through an immutable View that is published through a
+ * volatile field and replaced when either file changes, so they never take
+ * a lock. append() and compact() must be called while holding the marker's
+ * file lock (see Marker.write()).
+ *
+ * @author Matthew MacGregor
+ */
+class MarkerIndex { //deliberately package-private
+
+    /**
+     * @param path The marker path the index files are named after.
+     */
+    MarkerIndex(String path) {
+        indexPath = Paths.get(path + INDEX_SUFFIX);
+        logPath = Paths.get(path + LOG_SUFFIX);
+        auditPath = Paths.get(path + AUDIT_SUFFIX);
+        view = View.EMPTY;
+    }
+
+    /**
+     * @return True if either of the files exists.
+     */
+    boolean exists() {
+        return Files.exists(indexPath) || Files.exists(logPath);
+    }
+
+    /**
+     * Returns the current view of the files, opening them again first if
+     * they have changed since the last call.
+     *
+     * @return The current view.
+     * @throws IOException If the files can't be read.
+     */
+    View view() throws IOException {
+        File index = indexPath.toFile();
+        File log = logPath.toFile();
+        View current = view;
+        if (current.isCurrent(index, log)) {
+            return current;
+        }
+        synchronized (this) {
+            current = view;
+            if (current.isCurrent(index, log) == false) {
+                current = open(current, index, log);
+                view = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Appends acceptances and revocations to the journal, then compacts if
+     * the journal has grown past COMPACT_THRESHOLD bytes. The caller must hold
+     * the marker's file lock.
+     *
+     * @param values The accepted keys and their values.
+     * @param digests The digests of the keys, where they're known.
+     * @param revoked The keys whose acceptance has been revoked.
+     * @param time The time of the commit, in milliseconds since the epoch.
+     * @throws UTFDataFormatException If a key or digest is longer than 65535
+     * bytes in UTF-8, as with DataOutputStream.writeUTF(). Nothing is written.
+     * @throws IOException If the journal can't be written.
+     */
+    void append(Map<String, Integer> values, Map<String, String> digests,
+            Collection<String> revoked, long time) throws IOException {
+        View current = view();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (current.logLength == 0) {
+                out.write(LOG_MAGIC);
+                out.writeByte(VERSION);
+            }
+            for (String key : revoked) {
+                writeRecord(out, REVOKED, encode(key), 0, time, new byte[0]);
+            }
+            for (Map.Entry<String, Integer> entry : values.entrySet()) {
+                writeRecord(out, ACCEPTED, encode(entry.getKey()), entry.getValue(),
+                        time, encode(digests.get(entry.getKey())));
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop a record that was only partly written by a crash.
+            channel.truncate(current.logLength);
+            channel.position(current.logLength);
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            channel.force(true);
+        }
+
+        if (view().logLength > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds the journal into a new snapshot, moves its records to the audit
+     * file and empties it. The caller must hold the marker's file lock.
+     *
+     * @throws IOException If the files can't be written.
+     */
+    void compact() throws IOException {
+        View current = view();
+        TreeMap<byte[], Entry> logged = new TreeMap<>(BYTE_ORDER);
+        for (Map.Entry<String, Entry> entry : current.log.entrySet()) {
+            logged.put(encode(entry.getKey()), entry.getValue());
+        }
+
+        // First pass: the offset of every record in the new snapshot.
+        int[] offsets = new int[current.count + logged.size()];
+        int count = 0;
+        int offset = 0;
+        Merge merge = new Merge(current, logged);
+        while (merge.next()) {
+            offsets[count++] = offset;
+            offset += RECORD_LENGTH + merge.key.length + merge.digest.length;
+        }
+        offsets = Arrays.copyOf(offsets, count);
+        for (int i = 0; i < count; i++) {
+            offsets[i] += HEADER_LENGTH + count * 4;
+        }
+
+        // Second pass: write the merged index next to the old one.
+        Path temp = Files.createTempFile(indexPath.getParent(),
+                indexPath.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os))) {
+                out.write(INDEX_MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(count);
+                for (int o : offsets) {
+                    out.writeInt(o);
+                }
+                merge = new Merge(current, logged);
+                while (merge.next()) {
+                    writeRecord(out, ACCEPTED, merge.key, merge.value, merge.time, merge.digest);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, indexPath, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        // If this is interrupted, the journal is folded again next time, which
+        // gives the same snapshot, although its records may then appear twice
+        // in the audit file.
+        if (current.logLength > LOG_HEADER_LENGTH) {
+            byte[] journal = Files.readAllBytes(logPath);
+            try (FileChannel channel = FileChannel.open(auditPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (channel.size() == 0) {
+                    writeFully(channel, ByteBuffer.wrap(journal, 0, LOG_HEADER_LENGTH));
+                }
+                writeFully(channel, ByteBuffer.wrap(journal, LOG_HEADER_LENGTH,
+                        (int) current.logLength - LOG_HEADER_LENGTH));
+                channel.force(true);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Prints the history of a marker in the indexed store: the records in the
+     * audit file, followed by those in the journal, one per line and oldest
+     * first.
+     *
+     * @param args The marker path.
+     * @throws IOException If the files can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: MarkerIndex <marker path>");
+            System.exit(1);
+        }
+        for (String suffix : new String[]{AUDIT_SUFFIX, LOG_SUFFIX}) {
+            Path path = Paths.get(args[0] + suffix);
+            if (Files.exists(path) == false) {
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            if (buffer.remaining() < LOG_HEADER_LENGTH) {
+                // Torn header, nothing was recorded.
+                continue;
+            }
+            if (hasMagic(buffer, LOG_MAGIC) == false) {
+                throw new IOException("Not a marker journal: " + path);
+            }
+            buffer.position(LOG_HEADER_LENGTH);
+            Record record;
+            while ((record = Record.read(buffer)) != null) {
+                System.out.println(Instant.ofEpochMilli(record.time)
+                        + (record.type == REVOKED ? " revoked " : " accepted ")
+                        + decode(record.key)
+                        + (record.type == REVOKED ? "" : " " + record.value
+                                + (record.digest.length > 0 ? " " + decode(record.digest) : "")));
+            }
+        }
+    }
+
+    /**
+     * Opens the files. The mapping of the index is kept if the index hasn't
+     * changed, and only the new part of the log is read if it has grown.
+     */
+    private static View open(View previous, File index, File log) throws IOException {
+        long indexModified = index.lastModified();
+        long indexLength = index.length();
+        MappedByteBuffer mapped = previous.index;
+        int count = previous.count;
+        if (indexModified != previous.indexModified || indexLength != previous.indexLength) {
+            mapped = null;
+            count = 0;
+            if (indexLength > HEADER_LENGTH) {
+                try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, indexLength);
+                }
+                if (hasMagic(mapped, INDEX_MAGIC)) {
+                    count = mapped.getInt(MAGIC_LENGTH + 1);
+                } else {
+                    throw new IOException("Not a marker index: " + index);
+                }
+            }
+        }
+
+        long logLength = log.length();
+        Map<String, Entry> entries = new HashMap<>();
+        long start = 0;
+        if (logLength >= previous.logLength && previous.logLength > 0
+                && mapped == previous.index) {
+            // The journal has only been appended to, read just the new part.
+            entries.putAll(previous.log);
+            start = previous.logLength;
+        }
+        long valid = start;
+        if (logLength > start) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (logLength - start));
+            try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+            }
+            buffer.flip();
+            if (start == 0 && buffer.remaining() < LOG_HEADER_LENGTH) {
+                // The header was torn by a crash during the first append(), so
+                // the journal is empty. The next append() writes it again.
+                buffer.limit(0);
+            } else if (start == 0) {
+                if (hasMagic(buffer, LOG_MAGIC) == false) {
+                    throw new IOException("Not a marker journal: " + log);
+                }
+                buffer.position(LOG_HEADER_LENGTH);
+            }
+            valid = start + buffer.position();
+            while (buffer.hasRemaining()) {
+                Record record = Record.read(buffer);
+                if (record == null) {
+                    // A torn record at the end, from a crash during append().
+                    break;
+                }
+                entries.put(decode(record.key), new Entry(record));
+                valid = start + buffer.position();
+            }
+        }
+
+        return new View(mapped, count, indexModified, indexLength,
+                Collections.unmodifiableMap(entries), logLength == 0 ? 0 : valid, logLength);
+    }
+
+    /**
+     * Writes one record. The key and digest are prefixed with their lengths
+     * as unsigned shorts, so longer ones are refused rather than truncated.
+     */
+    private static void writeRecord(DataOutputStream out, byte type, byte[] key, int value,
+            long time, byte[] digest) throws IOException {
+        checkLength(key, "Key");
+        checkLength(digest, "Digest");
+        out.writeByte(type);
+        out.writeShort(key.length);
+        out.write(key);
+        out.writeInt(value);
+        out.writeLong(time);
+        out.writeShort(digest.length);
+        out.write(digest);
+    }
+
+    private static void checkLength(byte[] bytes, String what) throws UTFDataFormatException {
+        if (bytes.length > MAX_LENGTH) {
+            throw new UTFDataFormatException(what + " too long: " + bytes.length + " bytes");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(i) != magic[i]) {
+                return false;
+            }
+        }
+        return buffer.get(magic.length) == VERSION;
+    }
+
+    private static byte[] encode(String s) {
+        return (s != null) ? s.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static String decode(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Value, digest and time of the last record of a key. The digest is null
+     * if unknown.
+     */
+    static final class Entry {
+
+        Entry(Record record) {
+            this.value = record.value;
+            this.digest = (record.digest.length > 0) ? decode(record.digest) : null;
+            this.time = record.time;
+            this.isRevoked = record.type == REVOKED;
+        }
+
+        final int value;
+        final String digest;
+        final long time;
+        final boolean isRevoked;
+    }
+
+    /**
+     * A record as stored in either file.
+     */
+    private static final class Record {
+
+        /**
+         * Reads the record at the buffer's position.
+         *
+         * @return The record, or null if the buffer ends before the record
+         * does.
+         */
+        static Record read(ByteBuffer buffer) {
+            if (buffer.remaining() < 3) {
+                return null;
+            }
+            byte type = buffer.get();
+            byte[] key = new byte[buffer.getShort() & 0xffff];
+            if (buffer.remaining() < key.length + 14) {
+                return null;
+            }
+            buffer.get(key);
+            int value = buffer.getInt();
+            long time = buffer.getLong();
+            byte[] digest = new byte[buffer.getShort() & 0xffff];
+            if (buffer.remaining() < digest.length) {
+                return null;
+            }
+            buffer.get(digest);
+            Record record = new Record();
+            record.type = type;
+            record.key = key;
+            record.value = value;
+            record.time = time;
+            record.digest = digest;
+            return record;
+        }
+
+        byte type;
+        byte[] key;
+        int value;
+        long time;
+        byte[] digest;
+    }
+
+    /**
+     * Immutable view of the index and the log at one point in time.
+     */
+    static final class View implements Marker.Lookup {
+
+        View(MappedByteBuffer index, int count, long indexModified, long indexLength,
+                Map<String, Entry> log, long logLength, long logFileLength) {
+            this.index = index;
+            this.count = count;
+            this.indexModified = indexModified;
+            this.indexLength = indexLength;
+            this.log = log;
+            this.logLength = logLength;
+            this.logFileLength = logFileLength;
+        }
+
+        @Override
+        public boolean isRead() {
+            return true;
+        }
+
+        @Override
+        public Integer value(String key) {
+            Entry entry = entry(key);
+            return (entry != null && entry.isRevoked == false) ? entry.value : null;
+        }
+
+        @Override
+        public String digest(String key) {
+            Entry entry = entry(key);
+            return (entry != null && entry.isRevoked == false) ? entry.digest : null;
+        }
+
+        @Override
+        public long time(String key) {
+            Entry entry = entry(key);
+            return (entry != null && entry.isRevoked == false) ? entry.time : Marker.UNKNOWN_TIME;
+        }
+
+        /**
+         * Looks the key up in the journal, then in the snapshot.
+         */
+        Entry entry(String key) {
+            Entry entry = log.get(key);
+            if (entry == null) {
+                int offset = find(encode(key));
+                if (offset >= 0) {
+                    ByteBuffer record = index.duplicate();
+                    record.position(offset);
+                    entry = new Entry(Record.read(record));
+                }
+            }
+            return entry;
+        }
+
+        /**
+         * Binary search of the index, using only absolute reads of the
+         * mapping so that views can be shared between threads.
+         *
+         * @return The offset of the key's record, or -1.
+         */
+        int find(byte[] key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int offset = offsetOf(mid);
+                int cmp = compare(offset, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        int offsetOf(int i) {
+            return index.getInt(HEADER_LENGTH + i * 4);
+        }
+
+        private int compare(int offset, byte[] key) {
+            int length = index.getShort(offset + 1) & 0xffff;
+            int n = Math.min(length, key.length);
+            for (int i = 0; i < n; i++) {
+                int cmp = (index.get(offset + 3 + i) & 0xff) - (key[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - key.length;
+        }
+
+        boolean isCurrent(File indexFile, File logFile) {
+            return indexModified != STALE
+                    && indexFile.lastModified() == indexModified
+                    && indexFile.length() == indexLength
+                    && logFile.length() == logFileLength;
+        }
+
+        final MappedByteBuffer index;
+        final int count;
+        final long indexModified;
+        final long indexLength;
+        final Map<String, Entry> log;
+        /* Length of the log up to the end of its last complete record. */
+        final long logLength;
+        final long logFileLength;
+
+        static final long STALE = -1;
+        static final View EMPTY = new View(null, 0, STALE, STALE,
+                Collections.<String, Entry>emptyMap(), 0, STALE);
+    }
+
+    /**
+     * Walks the snapshot and the sorted journal together in key order. Keys
+     * in the journal replace the same keys in the snapshot, and revoked keys
+     * are left out.
+     */
+    private static final class Merge {
+
+        Merge(View view, TreeMap<byte[], Entry> logged) {
+            this.view = view;
+            this.logged = logged.entrySet().iterator();
+            advanceLog();
+        }
+
+        boolean next() {
+            while (step()) {
+                if (isRevoked == false) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean step() {
+            byte[] indexKey = null;
+            Record record = null;
+            if (i < view.count) {
+                ByteBuffer buffer = view.index.duplicate();
+                buffer.position(view.offsetOf(i));
+                record = Record.read(buffer);
+                indexKey = record.key;
+            }
+            if (indexKey == null && logKey == null) {
+                return false;
+            }
+
+            int cmp = (indexKey == null) ? 1
+                    : (logKey == null) ? -1
+                    : BYTE_ORDER.compare(indexKey, logKey);
+            if (cmp < 0) {
+                key = record.key;
+                value = record.value;
+                time = record.time;
+                digest = record.digest;
+                isRevoked = false;
+                i++;
+            } else {
+                key = logKey;
+                value = logEntry.value;
+                time = logEntry.time;
+                digest = encode(logEntry.digest);
+                isRevoked = logEntry.isRevoked;
+                if (cmp == 0) {
+                    i++;
+                }
+                advanceLog();
+            }
+            return true;
+        }
+
+        private void advanceLog() {
+            if (logged.hasNext()) {
+                Map.Entry<byte[], Entry> entry = logged.next();
+                logKey = entry.getKey();
+                logEntry = entry.getValue();
+            } else {
+                logKey = null;
+                logEntry = null;
+            }
+        }
+
+        byte[] key;
+        int value;
+        long time;
+        byte[] digest;
+
+        private boolean isRevoked;
+        private final View view;
+        private final Iterator<Map.Entry<byte[], Entry>> logged;
+        private int i;
+        private byte[] logKey;
+        private Entry logEntry;
+    }
+
+    /* Unsigned lexicographic order of UTF-8 bytes, i.e. code point order. */
+    private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final Path indexPath;
+    private final Path logPath;
+    private final Path auditPath;
+    private volatile View view;
+
+    /* Constants */
+    static final String INDEX_SUFFIX = ".idx";
+    static final String LOG_SUFFIX = ".log";
+    static final String AUDIT_SUFFIX = ".audit";
+    /* Length of the journal, in bytes, at which it is folded into a snapshot. */
+    static final int COMPACT_THRESHOLD = 64 * 1024;
+    /* Record types. */
+    static final byte ACCEPTED = 0;
+    static final byte REVOKED = 1;
+    private static final byte[] INDEX_MAGIC = {'E', 'U', 'L', 'X'};
+    private static final byte[] LOG_MAGIC = {'E', 'U', 'L', 'J'};
+    private static final int MAGIC_LENGTH = 4;
+    private static final byte VERSION = 2;
+    /* Magic, version byte and record count. */
+    private static final int HEADER_LENGTH = MAGIC_LENGTH + 1 + 4;
+    /* Magic and version byte. The journal and the audit file have no count. */
+    private static final int LOG_HEADER_LENGTH = MAGIC_LENGTH + 1;
+    /* Type, key length, value, time and digest length. */
+    private static final int RECORD_LENGTH = 1 + 2 + 4 + 8 + 2;
+    /* Longest key or digest, in bytes, that its length prefix can hold. */
+    private static final int MAX_LENGTH = 0xffff;
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+/**
+ * Receives timings for the phases of a launch, so that they can be fed into
+ * an application's own telemetry. Register a listener with
+ * EULA.setMetricsListener() before calling start().
+ *
+ * Listeners may be called from any thread, including the event dispatch
+ * thread and background threads, and should return quickly.
+ *
+ * @author Matthew MacGregor
+ */
+public interface MetricsListener {
+
+    /**
+     * The phases that are reported.
+     */
+    public enum Phase {
+        /** Reading the marker file. The count is the number of keys read. */
+        MARKER_READ,
+        /** Loading the text of one license. The count is the number of
+         * chars loaded. */
+        LICENSE_LOAD,
+        /** Creating the components of the Viewer frame. The count is 1. */
+        UI_INIT,
+        /** From the start of loading a license until its first chunk has
+         * been painted. The count is the number of chars painted. */
+        FIRST_PAINT,
+        /** Writing the marker file. The count is the number of keys
+         * written. */
+        COMMIT,
+        /** Building the search index of one license. The count is the
+         * number of words indexed. */
+        SEARCH_INDEX
+    }
+
+    /**
+     * Called each time a phase completes.
+     *
+     * @param phase The phase that has completed.
+     * @param name The license key for the license phases, the marker path
+     * for the marker phases, otherwise null.
+     * @param nanos The time the phase took, in nanoseconds.
+     * @param count A phase-specific count, see Phase.
+     */
+    public void phaseCompleted(Phase phase, String name, long nanos, long count);
+
+    /**
+     * The default listener, which ignores everything.
+     */
+    public static final MetricsListener NONE = new MetricsListener() {
+        @Override
+        public void phaseCompleted(Phase phase, String name, long nanos, long count) {
+        }
+    };
+}
@@ -0,0 +1,363 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.JViewport;
+import javax.swing.KeyStroke;
+import javax.swing.SwingWorker;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+
+/**
+ * Find bar for the license text shown by the Viewer. Once a license has been
+ * loaded, a LicenseIndex of it is built in the background, and queries are
+ * answered from the index as they are typed. Only the matches that are
+ * scrolled into view are highlighted, so a query with many thousands of
+ * matches costs no more to show than one with a few.
+ *
+ * Ctrl+F (Cmd+F) in the text moves to the find field, Enter and F3 go to the
+ * next match, Shift+Enter and Shift+F3 to the previous one, and Escape clears
+ * the query.
+ *
+ * @author Matthew MacGregor
+ */
+class SearchBar extends JPanel { //deliberately package-private
+
+    /**
+     * @param text The component that shows the license. It must be the view
+     * of a JViewport.
+     */
+    SearchBar(JTextComponent text) {
+        super(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        this.text = text;
+        this.visible = new ArrayList<>();
+        field = new JTextField(20);
+        status = new JLabel(" ");
+        JButton previous = new JButton("Previous");
+        JButton next = new JButton("Next");
+        add(new JLabel("Find:"));
+        add(field);
+        add(previous);
+        add(next);
+        add(status);
+        
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        previous.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                step(-1);
+            }
+        });
+        next.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                step(1);
+            }
+        });
+        bind(field, KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), 1);
+        bind(field, KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, InputEvent.SHIFT_DOWN_MASK), -1);
+        bind(field, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), 1);
+        bind(field, KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK), -1);
+        bind(text, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), 1);
+        bind(text, KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK), -1);
+        field.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "clear");
+        field.getActionMap().put("clear", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                field.setText("");
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+        text.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()), "find");
+        text.getActionMap().put("find", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                field.requestFocusInWindow();
+                field.selectAll();
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+        
+        ((JViewport) text.getParent()).addChangeListener(new ChangeListener() {
+            @Override
+            public void stateChanged(ChangeEvent e) {
+                highlightVisible();
+            }
+        });
+    }
+
+    /**
+     * Starts indexing the text that is currently shown. Call this once the
+     * whole license has been loaded. Queries typed in the meantime are
+     * answered as soon as the index is ready.
+     *
+     * @param key The key of the license, for the metrics.
+     * @param metrics Receives the time it took to build the index.
+     */
+    void index(final String key, final MetricsListener metrics) {
+        reset();
+        Document document = text.getDocument();
+        if (LicenseIndex.estimateBytes(document.getLength()) > byteBudget) {
+            field.setEnabled(false);
+            status.setText("This license is too long to search");
+            return;
+        }
+        // A chunked document hands out its text without copying it.
+        final CharSequence snapshot = (document instanceof ChunkedDocument)
+                ? ((ChunkedDocument) document).snapshot()
+                : text.getText();
+        indexer = new SwingWorker<LicenseIndex, Void>() {
+            @Override
+            protected LicenseIndex doInBackground() {
+                long start = System.nanoTime();
+                LicenseIndex built = LicenseIndex.build(snapshot);
+                metrics.phaseCompleted(MetricsListener.Phase.SEARCH_INDEX, key,
+                        System.nanoTime() - start, built.getWordCount());
+                return built;
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    index = get();
+                    search();
+                } catch (InterruptedException | CancellationException ex) {
+                    // Replaced by the next license.
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(SearchBar.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                    status.setText("Search is not available");
+                }
+            }
+        };
+        if (field.getText().trim().isEmpty() == false) {
+            status.setText("Indexing...");
+        }
+        indexer.execute();
+    }
+
+    /**
+     * Limits the memory an index may take. Licenses whose index wouldn't fit
+     * aren't indexed, and can't be searched.
+     *
+     * @param bytes The budget, see LicenseIndex.estimateBytes().
+     */
+    void setByteBudget(long bytes) {
+        byteBudget = bytes;
+    }
+
+    /**
+     * Drops the index and the matches, e.g. when the next license is about
+     * to be loaded. The query is kept.
+     */
+    void reset() {
+        if (indexer != null) {
+            indexer.cancel(true);
+            indexer = null;
+        }
+        field.setEnabled(true);
+        index = null;
+        matches = NO_MATCHES;
+        current = -1;
+        clearHighlights();
+        status.setText(" ");
+    }
+
+    /**
+     * Runs the query in the field against the index and moves to the first
+     * match at or after the caret.
+     */
+    private void search() {
+        String query = field.getText();
+        if (index == null) {
+            status.setText((indexer != null && query.trim().isEmpty() == false) ? "Indexing..." : " ");
+            return;
+        }
+        matches = index.find(query);
+        if (matches.length == 0) {
+            current = -1;
+            status.setText(query.trim().isEmpty() ? " " : "Not found");
+        } else {
+            current = LicenseIndex.nextMatch(matches, text.getCaretPosition());
+            if (current * 2 == matches.length) {
+                current = 0;
+            }
+        }
+        showCurrent();
+    }
+
+    /**
+     * Moves to the next (direction 1) or previous (-1) match, wrapping
+     * around at either end.
+     */
+    private void step(int direction) {
+        int count = matches.length / 2;
+        if (count == 0) {
+            return;
+        }
+        current = (current + direction + count) % count;
+        showCurrent();
+    }
+
+    /**
+     * Scrolls the current match into view and updates the highlights.
+     */
+    private void showCurrent() {
+        if (current >= 0) {
+            int start = matches[current * 2];
+            int end = matches[current * 2 + 1];
+            try {
+                Rectangle first = text.modelToView(start);
+                Rectangle last = text.modelToView(end);
+                if (first != null && last != null) {
+                    text.scrollRectToVisible(first.union(last));
+                }
+            } catch (BadLocationException ex) {
+                Logger.getLogger(SearchBar.class.getName()).log(Level.WARNING, null, ex);
+            }
+            text.setCaretPosition(start);
+            status.setText((current + 1) + " of " + (matches.length / 2));
+        }
+        highlightVisible();
+    }
+
+    /**
+     * Highlights the matches that are in view, replacing the previous
+     * highlights.
+     */
+    private void highlightVisible() {
+        clearHighlights();
+        if (matches.length == 0) {
+            return;
+        }
+        Rectangle view = text.getVisibleRect();
+        int from = text.viewToModel(view.getLocation());
+        int to = text.viewToModel(new Point(view.x + view.width, view.y + view.height));
+        Highlighter highlighter = text.getHighlighter();
+        int count = 0;
+        for (int m = LicenseIndex.nextMatch(matches, from);
+                m * 2 < matches.length && matches[m * 2] <= to && count < MAX_HIGHLIGHTS;
+                m++, count++) {
+            try {
+                visible.add(highlighter.addHighlight(matches[m * 2], matches[m * 2 + 1],
+                        (m == current) ? CURRENT : MATCH));
+            } catch (BadLocationException ex) {
+                // The text has been replaced, the highlights go with it.
+                break;
+            }
+        }
+    }
+
+    private void clearHighlights() {
+        Highlighter highlighter = text.getHighlighter();
+        for (Object tag : visible) {
+            highlighter.removeHighlight(tag);
+        }
+        visible.clear();
+    }
+
+    private void bind(JComponent component, KeyStroke key, final int direction) {
+        String name = (direction > 0) ? "findNext" : "findPrevious";
+        component.getInputMap().put(key, name);
+        component.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                step(direction);
+            }
+
+            private static final long serialVersionUID = 1L;
+        });
+    }
+
+    private final JTextComponent text;
+    private final JTextField field;
+    private final JLabel status;
+    //Tags of the highlights that are shown.
+    private final List<Object> visible;
+    //Builds the index of the current license.
+    private SwingWorker<LicenseIndex, Void> indexer;
+    //The index of the current license, or null until it has been built.
+    private LicenseIndex index;
+    //Result of the last query, see LicenseIndex.find().
+    private int[] matches = NO_MATCHES;
+    //Index of the selected match, or -1.
+    private int current = -1;
+    //See setByteBudget().
+    private long byteBudget = Long.MAX_VALUE;
+    private static final int[] NO_MATCHES = new int[0];
+    //Highlights beyond this many in view are left out.
+    private static final int MAX_HIGHLIGHTS = 1000;
+    private static final Highlighter.HighlightPainter MATCH =
+            new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 240, 140));
+    private static final Highlighter.HighlightPainter CURRENT =
+            new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 170, 60));
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,234 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A license downloaded from a URL, typically over HTTP, and kept in a disk
+ * cache. Once a license has been downloaded, later opens send the ETag and
+ * Last-Modified values of the cached copy with the request
+ * (If-None-Match/If-Modified-Since), so an unchanged license costs a "304 Not
+ * Modified" instead of a download. If the server can't be reached, the
+ * cached copy is used.
+ *
+ * Each URL has two files in the cache directory, named after the SHA-256 of
+ * the URL: the license itself and a ".properties" file with the validators.
+ * The license file is replaced atomically, so it is always complete.
+ *
+ * @author Matthew MacGregor
+ */
+public class UrlLicenseSource implements LicenseSource {
+
+    /**
+     * @param url The location of the license.
+     * @param cacheDirectory The directory that holds downloaded licenses. It
+     * is created if needed and may be shared by several sources.
+     */
+    public UrlLicenseSource(URL url, Path cacheDirectory) {
+        this.url = url;
+        String id;
+        try {
+            id = LicenseDigests.digest(new ByteArrayInputStream(
+                    url.toExternalForm().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException ex) {
+            // Not thrown by a ByteArrayInputStream.
+            throw new IllegalStateException(ex);
+        }
+        this.cachedFile = cacheDirectory.resolve(id);
+        this.validatorsFile = cacheDirectory.resolve(id + ".properties");
+    }
+
+    /**
+     * Returns the license, downloading it first if the server has a newer
+     * copy than the cache.
+     *
+     * @return The license, or null if the server doesn't have it and it
+     * hasn't been cached.
+     * @throws IOException If the server can't be reached and there is no
+     * cached copy.
+     */
+    @Override
+    public synchronized InputStream open() throws IOException {
+        try {
+            refresh();
+        } catch (FileNotFoundException ex) {
+            // Withdrawn from the server.
+            Files.deleteIfExists(cachedFile);
+            Files.deleteIfExists(validatorsFile);
+            return null;
+        } catch (IOException ex) {
+            if (Files.exists(cachedFile) == false) {
+                throw ex;
+            }
+            Logger.getLogger(UrlLicenseSource.class.getName()).log(Level.WARNING,
+                    "License " + url + " could not be refreshed, using the cached copy", ex);
+        }
+        return new FileLicenseSource(cachedFile).open();
+    }
+
+    @Override
+    public String getName() {
+        return url.toExternalForm();
+    }
+
+    /**
+     * Checks the cache only, without contacting the server, so that it can
+     * be called on the event dispatch thread.
+     *
+     * @return True if a copy of the license has been downloaded. A license
+     * that has never been opened doesn't exist yet.
+     */
+    @Override
+    public boolean exists() {
+        return Files.exists(cachedFile);
+    }
+
+    @Override
+    public long getLength() {
+        try {
+            return Files.size(cachedFile);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Makes the cached copy current.
+     *
+     * @throws FileNotFoundException If the server doesn't have the license.
+     * @throws IOException If the server can't be reached or the download
+     * fails.
+     */
+    private void refresh() throws IOException {
+        Properties validators = new Properties();
+        if (Files.exists(cachedFile) && Files.exists(validatorsFile)) {
+            try (InputStream in = Files.newInputStream(validatorsFile)) {
+                validators.load(in);
+            }
+        }
+
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        String etag = validators.getProperty(ETAG);
+        String lastModified = validators.getProperty(LAST_MODIFIED);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int status = ((HttpURLConnection) connection).getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    return;
+                }
+                if (status == HttpURLConnection.HTTP_NOT_FOUND
+                        || status == HttpURLConnection.HTTP_GONE) {
+                    throw new FileNotFoundException(url.toExternalForm());
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + status + " for " + url);
+                }
+            }
+            download(connection);
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    /**
+     * Stores the body of the response and its validators in the cache.
+     */
+    private void download(URLConnection connection) throws IOException {
+        Path directory = cachedFile.getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, cachedFile.getFileName().toString(), ".tmp");
+        try {
+            try (InputStream in = connection.getInputStream()) {
+                Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            move(temp, cachedFile);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        Properties validators = new Properties();
+        String etag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (etag != null) {
+            validators.setProperty(ETAG, etag);
+        }
+        if (lastModified != null) {
+            validators.setProperty(LAST_MODIFIED, lastModified);
+        }
+        temp = Files.createTempFile(directory, validatorsFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                validators.store(out, url.toExternalForm());
+            }
+            move(temp, validatorsFile);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private final URL url;
+    private final Path cachedFile;
+    private final Path validatorsFile;
+    /* Connect and read timeout, in milliseconds. */
+    private static final int TIMEOUT = 10000;
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "last-modified";
+}
@@ -28,9 +28,24 @@ package com.sudolink.eula;
 
 import java.awt.Color;
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 
 /**
  * Creates a EULA acceptance frame that will present the user with all of the
@@ -44,6 +59,33 @@ public class Viewer extends javax.swing.JFrame implements EULA {
 
     public class Config {
         public static final int PROGRESS_VISIBLE = 1;
+        /**
+         * Writes the marker file on a background thread after the licenses
+         * have been accepted, instead of before the frame is disposed. The
+         * outcome is reported through Launchable.acceptanceCommitted().
+         */
+        public static final int ASYNC_COMMIT = 2;
+        /**
+         * Keeps the marker in a memory-mapped, sorted index with an append
+         * log instead of a single file, for applications that record very
+         * many keys. An existing marker file is carried over on first use.
+         */
+        public static final int INDEXED_MARKER = 3;
+        /**
+         * Shows every pending license at once as an index, with each text
+         * loaded only when it's expanded, and accepts them all with a single
+         * Accept instead of one screen per license.
+         */
+        public static final int BATCH_REVIEW = 4;
+        /**
+         * Keeps as little of the license text in memory as possible, for
+         * launchers with a small heap. The text is stored in chunks instead
+         * of one large buffer, it isn't read ahead or added to the
+         * LicenseCache, and it's released as soon as it has been accepted.
+         * Licenses are only indexed for search if the index fits in the
+         * budget given to setLowMemoryBudget().
+         */
+        public static final int LOW_MEMORY = 5;
     }
     /**
      *
@@ -55,13 +97,23 @@ public class Viewer extends javax.swing.JFrame implements EULA {
      * this application will be launched.
      */
     public Viewer(String eulaPath, Launchable application) {
+        //Set a temporary license agreement file location
+        this(new Marker(new File(eulaPath).getAbsolutePath()), application);
+    }
+
+    /**
+     * Creates a viewer that shares an existing marker, so that a marker that
+     * has already been read (e.g. by Gate) isn't read a second time.
+     *
+     * @param marker The EULA acceptance marker.
+     * @param application If the user accepts all of the licenses presented,
+     * this application will be launched.
+     */
+    Viewer(Marker marker, Launchable application) {
         this.setUndecorated(true);
-        initComponents();
         app = application;
-
-        //Set a temporary license agreement file location
-        marker = new Marker(new File(eulaPath).getAbsolutePath());
-        licenses = new ArrayList<>();
+        this.marker = marker;
+        licenses = new ArrayDeque<>();
     }
 
     /**
@@ -71,14 +123,46 @@ public class Viewer extends javax.swing.JFrame implements EULA {
      * exists, it will overwrite previous values.
      *
      * @param jarpath The path to the license file that is embedded in the jar
-     * file. Note that licenses that aren't embedded are not supported at this
-     * time.
+     * file. Use addLicense(String, LicenseSource) for licenses that aren't
+     * embedded.
      */
     @Override
     public void addLicense(String key, String jarpath) {
         licenses.add(new License(key, jarpath));
     }
 
+    /**
+     * Adds a license whose text is read from a LicenseSource.
+     *
+     * @param key A user-specified string to identify the license.
+     * @param source Where the license text comes from.
+     */
+    @Override
+    public void addLicense(String key, LicenseSource source) {
+        licenses.add(new License(key, source, null));
+    }
+
+    /**
+     * Adds every license listed in a manifest, in the order they're listed,
+     * along with the digests the manifest gives.
+     *
+     * @param manifestPath The path to the manifest that is embedded in the
+     * jar file.
+     */
+    @Override
+    public void addLicenses(String manifestPath) {
+        licenses.addAll(LicenseManifest.read(manifestPath));
+    }
+
+    /**
+     * Adds a license that has already been created, e.g. by Gate.
+     *
+     * @param license The license to be displayed to the user.
+     */
+    void addLicense(License license) {
+        licenses.add(license);
+    }
+
     /**
      * Launches the EULA viewer frame. Call this method after you've added any
      * licenses.
@@ -89,10 +173,15 @@ public class Viewer extends javax.swing.JFrame implements EULA {
             launchApplication(true);
         } else {
             if(hasLicense()) {
+                initUserInterface();
                 progressBar.setMaximum(licenses.size());
                 setLocationRelativeTo(null);
                 setVisible(true);
-                displayLicense();
+                if (isBatchReview && licenses.size() > 1) {
+                    displayBatch();
+                } else {
+                    displayLicense();
+                }
             } else {
                 //If there are no licenses registered, assume there's nothing
                 //to sign and let the user in.
@@ -114,18 +203,110 @@ public class Viewer extends javax.swing.JFrame implements EULA {
     public void setConfiguration( int type, boolean value ) {
         switch(type) {
             case Config.PROGRESS_VISIBLE:
-                progressBar.setVisible(value);
+                isProgressVisible = value;
+                break;
+            case Config.ASYNC_COMMIT:
+                isCommitAsync = value;
                 break;
+            case Config.INDEXED_MARKER:
+                marker.setIndexed(value);
+                break;
+            case Config.BATCH_REVIEW:
+                isBatchReview = value;
+                break;
+            case Config.LOW_MEMORY:
+                isLowMemory = value;
+                break;
+        }
+        applyConfiguration();
+    }
+    
+    /**
+     * Sets the number of bytes the search index may take in low-memory mode
+     * (see Config.LOW_MEMORY). It only limits the index: the text being
+     * shown is always held in full. The index takes about 4 bytes per char,
+     * so the default of 4 MB leaves licenses over roughly one million chars
+     * unsearchable. The default can be changed with the system property
+     * "com.sudolink.eula.Viewer.lowMemoryBudget".
+     *
+     * @param bytes The budget.
+     */
+    public void setLowMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative budget: " + bytes);
         }
+        lowMemoryBudget = bytes;
+        applyConfiguration();
+    }
+    
+    /**
+     * Registers a listener that receives the timings of each phase of the
+     * launch. Call this before start().
+     * 
+     * @param listener The listener, or MetricsListener.NONE.
+     */
+    @Override
+    public void setMetricsListener(MetricsListener listener) {
+        metrics = listener;
+        marker.setMetricsListener(listener);
+    }
+    
+    /**
+     * Withdraws the user's acceptance of a license and commits the change.
+     *
+     * @param key The key the license was added with.
+     * @return True if the revocation has been written.
+     */
+    @Override
+    public boolean revoke(String key) {
+        marker.revoke(key);
+        return marker.commit();
     }
     
     @Override
     public void setColor(int type, Color c) {
-        backgroundPanel.setBackground(c);
+        backgroundColor = c;
+        applyConfiguration();
+    }
+    
+    /**
+     * Pushes the configuration options to the components. Does nothing until
+     * the components have been created.
+     */
+    private void applyConfiguration() {
+        if (isUserInterfaceReady == false) {
+            return;
+        }
+        progressBar.setVisible(isProgressVisible);
+        if (backgroundColor != null) {
+            backgroundPanel.setBackground(backgroundColor);
+        }
+        searchBar.setByteBudget(isLowMemory ? lowMemoryBudget : Long.MAX_VALUE);
     }
 //</editor-fold>
 
     // <editor-fold defaultstate="collapsed" desc="Private methods">
+    /**
+     * Creates the components of the frame. This is deferred until a license
+     * actually needs to be shown, so that launches where every license has
+     * already been accepted don't pay for building the UI.
+     */
+    private void initUserInterface() {
+        if (isUserInterfaceReady) {
+            return;
+        }
+        long start = System.nanoTime();
+        initComponents();
+        // Outside the generated code, so that the form is left as it is.
+        WrapView.install(textAreaLicense);
+        searchBar = new SearchBar(textAreaLicense);
+        scrollPaneLicense.setColumnHeaderView(searchBar);
+        metrics.phaseCompleted(MetricsListener.Phase.UI_INIT, null,
+                System.nanoTime() - start, 1);
+        isUserInterfaceReady = true;
+        applyConfiguration();
+    }
+    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -262,9 +443,12 @@ public class Viewer extends javax.swing.JFrame implements EULA {
     }//GEN-LAST:event_buttonDeclineActionPerformed
 
     private void buttonAcceptActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_buttonAcceptActionPerformed
-        if (this.checkboxEulaAgree.isSelected()) {
+        if (this.checkboxEulaAgree.isSelected() && batch != null) {
+            acceptBatch();
+        } else if (this.checkboxEulaAgree.isSelected()) {
             // Process the current license that's being displayed
-            marker.put(popLicense().getKey());
+            License license = popLicense();
+            marker.put(license.getKey(), license.getDigest());
             progressBar.setValue(progressBar.getValue() + 1);
             displayLicense();
         } else {
@@ -274,10 +458,17 @@ public class Viewer extends javax.swing.JFrame implements EULA {
     }//GEN-LAST:event_buttonAcceptActionPerformed
     
     private boolean isEulaAccepted() {
-        List<License> unacceptedLicenses = new ArrayList<>();
+        Map<String, String> digests = new HashMap<>();
+        for(License l : licenses) {
+            digests.put(l.getKey(), l.getDigest());
+        }
+        //One read of the marker answers for every license
+        Set<String> accepted = marker.acceptedKeys(digests);
+        
+        Deque<License> unacceptedLicenses = new ArrayDeque<>();
         //Filter out the licenses that have been accepted
         for(License l : licenses) {
-            if (marker.isEulaAccepted(l.getKey()) == false) {
+            if (accepted.contains(l.getKey()) == false) {
                 unacceptedLicenses.add(l);
             }
         }
@@ -298,13 +489,7 @@ public class Viewer extends javax.swing.JFrame implements EULA {
             try {
                 prepareLicense();
             } catch (FileNotFoundException ex) {
-                JOptionPane.showMessageDialog(
-                        this,
-                        "An important file is missing.\nPlease contact the software vendor to correct this issue.",
-                        "Error",
-                        JOptionPane.ERROR_MESSAGE
-                );
-                launchApplication(false);
+                licenseMissing();
             }
         } else {
             // If there are no remaining licenses, all have been accepted
@@ -312,34 +497,132 @@ public class Viewer extends javax.swing.JFrame implements EULA {
         }
     }
     
+    /**
+     * Shows the index of every pending license (see Config.BATCH_REVIEW).
+     */
+    private void displayBatch() {
+        batch = new BatchReviewPanel(licenses, metrics, isLowMemory);
+        scrollPaneLicense.setViewportView(batch);
+        scrollPaneLicense.setColumnHeaderView(null);
+        checkboxEulaAgree.setText("I agree to be bound by the terms of all "
+                + licenses.size() + " licenses.");
+        checkboxEulaAgree.setSelected(false);
+        checkboxEulaAgree.setEnabled(true);
+    }
+    
+    /**
+     * Accepts every license in the batch. Licenses that were never expanded
+     * haven't been read, so each one is read off the EDT first (see
+     * BatchAcceptor). The keys are then put in one step and written with the
+     * single commit in launchApplication().
+     */
+    private void acceptBatch() {
+        checkboxEulaAgree.setEnabled(false);
+        buttonAccept.setEnabled(false);
+        acceptor = new BatchAcceptor(new ArrayList<>(licenses));
+        acceptor.execute();
+    }
+    
+    private void licenseMissing() {
+        JOptionPane.showMessageDialog(
+                this,
+                "An important file is missing.\nPlease contact the software vendor to correct this issue.",
+                "Error",
+                JOptionPane.ERROR_MESSAGE
+        );
+        launchApplication(false);
+    }
+    
     private void launchApplication(boolean isEulaAccepted) {
-        app.launchApplication(isEulaAccepted, args);
-        if(isEulaAccepted) {
-            marker.commit();
+        if (loader != null) {
+            loader.cancel(true);
+        }
+        if (prefetch != null) {
+            prefetch.cancel(true);
+        }
+        if (batch != null) {
+            batch.cancel();
+        }
+        if (acceptor != null) {
+            acceptor.cancel(true);
+        }
+        if (isLowMemory) {
+            releaseText();
+        }
+        if(isEulaAccepted && isCommitAsync) {
+            // Start writing straight away, the application doesn't wait.
+            CompletableFuture<Boolean> committed = marker.commitAsync();
+            app.launchApplication(isEulaAccepted, args);
+            // Attached afterwards, so the outcome is never reported before
+            // the application has been launched.
+            committed.thenAccept(new Consumer<Boolean>() {
+                @Override
+                public void accept(Boolean isCommitted) {
+                    app.acceptanceCommitted(isCommitted);
+                }
+            });
+        } else {
+            app.launchApplication(isEulaAccepted, args);
+            if(isEulaAccepted) {
+                app.acceptanceCommitted(marker.commit());
+            }
         }
         dispose();
     }
     
+    /**
+     * Drops the license text, its index and the batch review panel before
+     * the application starts, since the host may keep the Viewer.
+     */
+    private void releaseText() {
+        if (isUserInterfaceReady == false) {
+            return;
+        }
+        searchBar.reset();
+        clearText();
+        if (batch != null) {
+            scrollPaneLicense.setViewportView(textAreaLicense);
+            batch = null;
+        }
+    }
+    
+    /**
+     * Empties the text area. In low-memory mode the document is replaced
+     * instead, since the root element of a PlainDocument keeps the lines
+     * removed from it until new lines take their place.
+     */
+    private void clearText() {
+        if (isLowMemory) {
+            textAreaLicense.setDocument(new ChunkedDocument());
+        } else {
+            textAreaLicense.setText("");
+        }
+    }
+    
     private License prepareLicense() throws FileNotFoundException {
         License license;
         if (licenses.isEmpty()) {
             return null;
         }
         
-        license = licenses.get(0);
-        String licenseText = null;
-        
-        if (license != null) {
-            licenseText = license.read();
-        }
+        license = licenses.peekFirst();
         
-        if (license == null || licenseText == null) {
+        if (license == null) {
             throw new FileNotFoundException("The license file could not be opened.");
         }
         
-        textAreaLicense.setText(licenseText);
-        textAreaLicense.setCaretPosition(0);
+        // The text is loaded in the background and shown chunk by chunk, so
+        // the first page appears without waiting for the whole document. 
+        // The checkbox is enabled once the whole license has been loaded.
+        if (loader != null) {
+            loader.cancel(true);
+        }
+        searchBar.reset();
+        clearText();
         checkboxEulaAgree.setSelected(false);
+        checkboxEulaAgree.setEnabled(false);
+        loader = new LicenseLoader(license, takePrefetch(license));
+        loader.execute();
         
         return license;
     }
@@ -349,7 +632,260 @@ public class Viewer extends javax.swing.JFrame implements EULA {
             return null;
         }
         
-        return licenses.remove(0);
+        return licenses.pollFirst();
+    }
+    
+    /**
+     * Starts reading the license that follows the one being displayed, so
+     * that it is ready by the time the user accepts the current one.
+     */
+    private void prefetchNextLicense() {
+        // In low-memory mode, only one license is read at a time.
+        if (isLowMemory == false && licenses.size() > 1) {
+            Iterator<License> next = licenses.iterator();
+            next.next();
+            prefetch = new LicensePrefetch(next.next());
+            prefetch.execute();
+        }
+    }
+    
+    /**
+     * Hands over the prefetched text if it belongs to the given license.
+     *
+     * @return The pending text of the license, or null if it hasn't been
+     * prefetched.
+     */
+    private Future<String> takePrefetch(License license) {
+        Future<String> text = null;
+        if (prefetch != null) {
+            if (prefetch.license == license) {
+                text = prefetch;
+            } else {
+                prefetch.cancel(true);
+            }
+            prefetch = null;
+        }
+        return text;
+    }
+    
+    /**
+     * Time from the start of loading the current license until its first
+     * chunk was painted, in nanoseconds, or -1 if nothing has been painted
+     * yet.
+     */
+    long getTimeToFirstPaint() {
+        return timeToFirstPaint;
+    }
+    
+    /**
+     * Reads a license off the EDT and appends it to the text area in chunks
+     * of roughly CHUNK_SIZE chars. If the license has been prefetched, the
+     * chunks are taken from the prefetched text instead.
+     */
+    private class LicenseLoader extends SwingWorker<Boolean, String> implements Appendable {
+
+        LicenseLoader(License license, Future<String> prefetched) {
+            this.license = license;
+            this.prefetched = prefetched;
+            this.pending = new StringBuilder(CHUNK_SIZE);
+            this.isCached = isLowMemory == false;
+            this.startTime = System.nanoTime();
+            timeToFirstPaint = -1;
+        }
+
+        @Override
+        protected Boolean doInBackground() throws Exception {
+            if (prefetched != null) {
+                String text = prefetched.get();
+                if (text == null) {
+                    return false;
+                }
+                for (int i = 0; i < text.length(); i += CHUNK_SIZE) {
+                    publish(text.substring(i, Math.min(i + CHUNK_SIZE, text.length())));
+                    // The whole text is at hand, so the chunks would all be
+                    // appended in one go. Wait for each one to be shown, so
+                    // that the first is painted on its own and the EDT gets
+                    // a turn between the others.
+                    processed.acquire();
+                }
+                return true;
+            }
+            long start = System.nanoTime();
+            boolean isFound = license.read(this, isCached);
+            flush();
+            if (isFound) {
+                metrics.phaseCompleted(MetricsListener.Phase.LICENSE_LOAD, license.getKey(),
+                        System.nanoTime() - start, loaded);
+            }
+            return isFound;
+        }
+
+        @Override
+        protected void process(List<String> chunks) {
+            try {
+                show(chunks);
+            } finally {
+                processed.release(chunks.size());
+            }
+        }
+
+        private void show(List<String> chunks) {
+            if (isCancelled()) {
+                return;
+            }
+            boolean isFirst = textAreaLicense.getDocument().getLength() == 0;
+            for (String chunk : chunks) {
+                textAreaLicense.append(chunk);
+            }
+            if (isFirst) {
+                textAreaLicense.setCaretPosition(0);
+                textAreaLicense.paintImmediately(textAreaLicense.getVisibleRect());
+                timeToFirstPaint = System.nanoTime() - startTime;
+                metrics.phaseCompleted(MetricsListener.Phase.FIRST_PAINT, license.getKey(),
+                        timeToFirstPaint, textAreaLicense.getDocument().getLength());
+                Logger.getLogger(Viewer.class.getName()).log(Level.FINE,
+                        "License {0} first painted after {1} ms",
+                        new Object[]{license.getKey(), timeToFirstPaint / 1000000});
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                if (get()) {
+                    checkboxEulaAgree.setEnabled(true);
+                    searchBar.index(license.getKey(), metrics);
+                    prefetchNextLicense();
+                } else {
+                    licenseMissing();
+                }
+            } catch (InterruptedException | CancellationException ex) {
+                // The viewer is going away, nothing left to do.
+            } catch (ExecutionException ex) {
+                // Keep whatever has been shown, as read() used to.
+                Logger.getLogger(Viewer.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                checkboxEulaAgree.setEnabled(true);
+            }
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            loaded += end - start;
+            pending.append(csq, start, end);
+            if (pending.length() >= CHUNK_SIZE) {
+                flush();
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            loaded++;
+            pending.append(c);
+            return this;
+        }
+
+        private void flush() {
+            if (pending.length() > 0) {
+                publish(pending.toString());
+                pending.setLength(0);
+            }
+        }
+
+        private final License license;
+        private final Future<String> prefetched;
+        private final StringBuilder pending;
+        //One permit for each chunk that has been shown.
+        private final Semaphore processed = new Semaphore(0);
+        private final boolean isCached;
+        private final long startTime;
+        private long loaded;
+    }
+    
+    /**
+     * Reads the whole text of a license off the EDT.
+     */
+    private class LicensePrefetch extends SwingWorker<String, Void> {
+
+        LicensePrefetch(License license) {
+            this.license = license;
+        }
+
+        @Override
+        protected String doInBackground() {
+            long start = System.nanoTime();
+            String text = license.read();
+            if (text != null) {
+                metrics.phaseCompleted(MetricsListener.Phase.LICENSE_LOAD, license.getKey(),
+                        System.nanoTime() - start, text.length());
+            }
+            return text;
+        }
+
+        private final License license;
+    }
+    
+    /**
+     * Makes sure every license in the batch can be read and collects the
+     * digests to be recorded with the keys, off the EDT. A license from a
+     * LicenseSource is downloaded or read if need be, so that its digest is
+     * that of the text the user could have expanded.
+     */
+    private class BatchAcceptor extends SwingWorker<Map<String, String>, Void> {
+
+        BatchAcceptor(List<License> licenses) {
+            this.licenses = licenses;
+            this.isCached = isLowMemory == false;
+        }
+
+        /**
+         * @return The digest of each key, or null if a license is missing.
+         */
+        @Override
+        protected Map<String, String> doInBackground() throws IOException {
+            Map<String, String> accepted = new HashMap<>();
+            for (License l : licenses) {
+                if (l.verify(isCached) == false) {
+                    return null;
+                }
+                accepted.put(l.getKey(), l.getDigest());
+            }
+            return accepted;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                Map<String, String> accepted = get();
+                if (accepted == null) {
+                    licenseMissing();
+                    return;
+                }
+                marker.putAll(accepted);
+                progressBar.setValue(progressBar.getMaximum());
+                Viewer.this.licenses.clear();
+                launchApplication(true);
+            } catch (InterruptedException | CancellationException ex) {
+                // The viewer is going away, nothing left to do.
+            } catch (ExecutionException ex) {
+                Logger.getLogger(Viewer.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                licenseMissing();
+            }
+        }
+
+        private final List<License> licenses;
+        private final boolean isCached;
     }
     // </editor-fold>
 
@@ -372,7 +908,33 @@ public class Viewer extends javax.swing.JFrame implements EULA {
     private String[] args;
     //Marker that indicates the user has accepted EULA.
     private final Marker marker;
-    //List of the licenses to be displayed to the user.
-    private List<License> licenses;
+    //Licenses still to be displayed to the user, in order.
+    private Deque<License> licenses;
+    //True once initComponents() has run.
+    private boolean isUserInterfaceReady;
+    //Configuration options, applied when the components are created.
+    private boolean isProgressVisible;
+    private Color backgroundColor;
+    private boolean isCommitAsync;
+    private boolean isBatchReview;
+    private boolean isLowMemory;
+    private long lowMemoryBudget = Long.getLong("com.sudolink.eula.Viewer.lowMemoryBudget",
+            4 * 1024 * 1024);
+    //The index shown in batch review mode, or null.
+    private BatchReviewPanel batch;
+    //Searches the license that is displayed.
+    private SearchBar searchBar;
+    //Receives the timings of each phase.
+    private volatile MetricsListener metrics = MetricsListener.NONE;
+    //Loads the license that is currently displayed.
+    private LicenseLoader loader;
+    //Reads the next license while the current one is displayed.
+    private LicensePrefetch prefetch;
+    //Reads the batch before it is accepted, in batch review mode.
+    private BatchAcceptor acceptor;
+    //See getTimeToFirstPaint().
+    private volatile long timeToFirstPaint = -1;
+    //Number of chars appended to the text area at a time.
+    private static final int CHUNK_SIZE = 64 * 1024;
     // </editor-fold>
 }
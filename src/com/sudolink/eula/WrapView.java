@@ -0,0 +1,581 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * Word-wrapping view of a plain text document, used by the Viewer in place of
+ * Swing's WrappedPlainView. WrappedPlainView breaks every line of the
+ * document into rows each time the width changes, so loading or resizing a
+ * large license stalls the event dispatch thread. This view only breaks the
+ * lines that are painted or that a position is looked up in, and estimates
+ * the number of rows of the others from their length.
+ *
+ * The number of rows of each line is kept in a Fenwick tree, so that the
+ * row at a given y and the y of a given line are found in logarithmic time.
+ * A tree is kept for each of the last few width buckets (BUCKET_WIDTH pixels
+ * wide), so resizing back and forth reuses them. Rows are always broken at
+ * the exact width: counts from another width in the same bucket are kept as
+ * estimates, which are close, until the line is broken again. Lines that
+ * cannot wrap at the current width are counted without being broken.
+ *
+ * @author Matthew MacGregor
+ */
+class WrapView extends View implements TabExpander { //deliberately package-private
+
+    WrapView(Element root) {
+        super(root);
+        layouts = new LayoutCache<>();
+        segment = new Segment();
+        row = new Segment();
+    }
+
+    /**
+     * Makes a text area use WrapView for word wrapping. Only look and feels
+     * that use the basic text area UI are changed, so that others keep their
+     * own rendering.
+     *
+     * @param area A text area with line wrap and word wrap style enabled.
+     */
+    static void install(JTextArea area) {
+        if (area.getUI().getClass() == BasicTextAreaUI.class) {
+            area.setUI(new UI());
+        }
+    }
+
+    /**
+     * BasicTextAreaUI that creates a WrapView when the text area wraps at
+     * word boundaries.
+     */
+    static class UI extends BasicTextAreaUI {
+
+        @Override
+        public View create(Element elem) {
+            JTextComponent c = getComponent();
+            if (c instanceof JTextArea && ((JTextArea) c).getLineWrap()
+                    && ((JTextArea) c).getWrapStyleWord()
+                    && Boolean.TRUE.equals(elem.getDocument().getProperty("i18n")) == false) {
+                return new WrapView(elem);
+            }
+            return super.create(elem);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == View.X_AXIS) {
+            return (width > 0) ? width : DEFAULT_WIDTH;
+        }
+        if (width <= 0) {
+            // Not laid out yet, assume nothing wraps.
+            return getElement().getElementCount() * lineHeight;
+        }
+        return layoutFor(width).total * lineHeight;
+    }
+
+    @Override
+    public int getResizeWeight(int axis) {
+        return (axis == View.X_AXIS) ? 1 : 0;
+    }
+
+    @Override
+    public void setSize(float w, float h) {
+        updateMetrics();
+        if ((int) w != width) {
+            width = (int) w;
+            preferenceChanged(null, false, true);
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Layout layout = layoutFor(widthOf(alloc));
+        int before = layout.total;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter highlighter = (h instanceof LayeredHighlighter) ? (LayeredHighlighter) h : null;
+        Caret caret = host.getCaret();
+        boolean isSelectionShown = caret != null && caret.isSelectionVisible()
+                && host.getSelectionStart() != host.getSelectionEnd();
+        Color foreground = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Color selected = host.getSelectedTextColor();
+        g.setFont(font);
+        
+        int firstRow = Math.max(0, (clip.y - alloc.y) / lineHeight);
+        int lastRow = (clip.y + clip.height - alloc.y) / lineHeight;
+        Element root = getElement();
+        int paragraph = layout.paragraphAt(firstRow);
+        int rowIndex = layout.rowOf(paragraph);
+        while (paragraph < root.getElementCount() && rowIndex <= lastRow) {
+            loadParagraph(root.getElement(paragraph));
+            int rows = 0;
+            int rowStart = segmentStart;
+            do {
+                int rowEnd = nextRow(rowStart, layout.width);
+                int y = alloc.y + rowIndex * lineHeight;
+                if (y + lineHeight >= clip.y && y <= clip.y + clip.height) {
+                    if (highlighter != null) {
+                        highlighter.paintLayeredHighlights(g, rowStart, rowEnd, a, host, this);
+                    }
+                    int baseline = y + metrics.getAscent();
+                    int textEnd = Math.min(rowEnd, segmentEnd);
+                    if (isSelectionShown && selected != null) {
+                        int selectionStart = Math.min(Math.max(host.getSelectionStart(), rowStart), textEnd);
+                        int selectionEnd = Math.min(Math.max(host.getSelectionEnd(), rowStart), textEnd);
+                        int x = drawRow(g, alloc.x, baseline, rowStart, selectionStart, foreground);
+                        x = drawRow(g, x, baseline, selectionStart, selectionEnd, selected);
+                        drawRow(g, x, baseline, selectionEnd, textEnd, foreground);
+                    } else {
+                        drawRow(g, alloc.x, baseline, rowStart, textEnd, foreground);
+                    }
+                }
+                rows++;
+                rowIndex++;
+                rowStart = rowEnd;
+            } while (rowStart < loadedEnd);
+            layout.setRows(paragraph, rows);
+            paragraph++;
+        }
+        
+        if (layout.total != before) {
+            preferenceChanged(null, false, true);
+        }
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        Element root = getElement();
+        if (pos < root.getStartOffset() || pos > root.getEndOffset()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Layout layout = layoutFor(widthOf(alloc));
+        int paragraph = root.getElementIndex(pos);
+        int rowIndex = layout.rowOf(paragraph);
+        loadParagraph(root.getElement(paragraph));
+        pos = Math.min(pos, segmentEnd);
+        
+        int rows = 0;
+        int rowStart = segmentStart;
+        int found = -1;
+        do {
+            int rowEnd = nextRow(rowStart, layout.width);
+            if (found < 0 && (pos < rowEnd || rowEnd == loadedEnd)) {
+                found = rowStart;
+                rowIndex += rows;
+            }
+            rows++;
+            rowStart = rowEnd;
+        } while (rowStart < loadedEnd);
+        int before = layout.total;
+        layout.setRows(paragraph, rows);
+        if (layout.total != before) {
+            preferenceChanged(null, false, true);
+        }
+        
+        int x = alloc.x + Utilities.getTabbedTextWidth(rowSegment(found, pos), metrics, tabBase, this, found);
+        return new Rectangle(x, alloc.y + rowIndex * lineHeight, 1, lineHeight);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        bias[0] = Position.Bias.Forward;
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Layout layout = layoutFor(widthOf(alloc));
+        Element root = getElement();
+        if (fy < alloc.y) {
+            return root.getStartOffset();
+        }
+        int target = (int) (fy - alloc.y) / lineHeight;
+        if (target >= layout.total) {
+            return root.getEndOffset() - 1;
+        }
+        int paragraph = layout.paragraphAt(target);
+        int rowIndex = layout.rowOf(paragraph);
+        Element line = root.getElement(paragraph);
+        loadParagraph(line);
+        
+        int rowStart = segmentStart;
+        int rowEnd = nextRow(rowStart, layout.width);
+        while (rowIndex < target && rowEnd < loadedEnd) {
+            rowIndex++;
+            rowStart = rowEnd;
+            rowEnd = nextRow(rowStart, layout.width);
+        }
+        int offset = rowStart + Utilities.getTabbedTextOffset(rowSegment(rowStart, rowEnd),
+                metrics, tabBase, (int) fx, this, rowStart);
+        return Math.max(rowStart, Math.min(offset, rowEnd - 1));
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        int tabSize = ((size instanceof Integer) ? (Integer) size : DEFAULT_TAB_SIZE)
+                * metrics.charWidth('m');
+        if (tabSize == 0) {
+            return x;
+        }
+        int tabs = (int) (x - tabBase) / tabSize;
+        return tabBase + (tabs + 1) * tabSize;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e);
+    }
+
+    /**
+     * Carries the row counts of the lines that haven't changed over to the
+     * new lines of the document; the changed lines are estimated again.
+     */
+    private void update(DocumentEvent e) {
+        DocumentEvent.ElementChange change = e.getChange(getElement());
+        int index;
+        int removed;
+        int added;
+        if (change != null) {
+            index = change.getIndex();
+            removed = change.getChildrenRemoved().length;
+            added = change.getChildrenAdded().length;
+        } else {
+            index = getElement().getElementIndex(e.getOffset());
+            removed = 1;
+            added = 1;
+        }
+        for (Layout layout : layouts.values()) {
+            layout.replace(index, removed, added);
+        }
+        preferenceChanged(null, false, true);
+        Component host = getContainer();
+        if (host != null) {
+            host.repaint();
+        }
+    }
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        if (host == null) {
+            return;
+        }
+        Font current = host.getFont();
+        if (current != font) {
+            font = current;
+            metrics = host.getFontMetrics(current);
+            lineHeight = Math.max(1, metrics.getHeight());
+            layouts.clear();
+        }
+    }
+
+    /**
+     * The width to break rows at. As in WrappedPlainView, this is the width
+     * given to setSize(), which leaves room for the caret, rather than the
+     * width of the allocation.
+     */
+    private int widthOf(Rectangle alloc) {
+        return Math.max(1, (width > 0) ? width : alloc.width);
+    }
+
+    /**
+     * @return The row counts for a width. If the width hasn't been used
+     * recently, they are taken from another width in the same bucket or
+     * estimated.
+     */
+    private Layout layoutFor(int w) {
+        Integer bucket = w / BUCKET_WIDTH;
+        Layout layout = layouts.get(bucket);
+        if (layout == null) {
+            layout = new Layout(w);
+            layout.replace(0, 0, getElement().getElementCount());
+            layouts.put(bucket, layout);
+        } else if (layout.width != w) {
+            layout.setWidth(w);
+        }
+        return layout;
+    }
+
+    /**
+     * Estimates the number of rows of a line from its length. The estimate
+     * is exact if the line is too short to wrap.
+     */
+    private int estimateRows(int paragraph, int w) {
+        Element line = getElement().getElement(paragraph);
+        int chars = line.getEndOffset() - line.getStartOffset() - 1;
+        if (chars <= 0 || metrics == null) {
+            return 1;
+        }
+        int maxAdvance = metrics.getMaxAdvance();
+        if (maxAdvance > 0 && (long) chars * maxAdvance <= w) {
+            return 1;
+        }
+        long estimate = ((long) chars * metrics.charWidth('n') + w - 1) / w;
+        return (int) Math.max(1, Math.min(estimate, Integer.MAX_VALUE / 2));
+    }
+
+    /**
+     * Loads the text of a line, with its newline, into segment. segmentEnd is
+     * the end of the text without the newline.
+     */
+    private void loadParagraph(Element line) {
+        segmentStart = line.getStartOffset();
+        segmentEnd = Math.max(segmentStart, line.getEndOffset() - 1);
+        // Rows run to the end of the line, as in WrappedPlainView, so that a
+        // newline after whitespace that overflows the width gets a row.
+        loadedEnd = line.getEndOffset();
+        try {
+            getDocument().getText(segmentStart, loadedEnd - segmentStart, segment);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return The start of the row after the one that starts at rowStart, in
+     * the loaded line.
+     */
+    private int nextRow(int rowStart, int w) {
+        if (rowStart >= loadedEnd) {
+            return loadedEnd;
+        }
+        Segment rest = rowSegment(rowStart, loadedEnd);
+        int next = rowStart + Utilities.getBreakLocation(rest, metrics, tabBase, tabBase + w, this, rowStart);
+        // At least one char per row, however narrow the view.
+        return Math.min(Math.max(next, rowStart + 1), loadedEnd);
+    }
+
+    /**
+     * @return The part of the loaded line from start to end.
+     */
+    private Segment rowSegment(int start, int end) {
+        row.array = segment.array;
+        row.offset = segment.offset + (start - segmentStart);
+        row.count = end - start;
+        return row;
+    }
+
+    private int drawRow(Graphics g, int x, int baseline, int start, int end, Color color) {
+        if (start >= end) {
+            return x;
+        }
+        g.setColor(color);
+        return Utilities.drawTabbedText(rowSegment(start, end), x, baseline, g, this, start);
+    }
+
+    /**
+     * Keeps the MAX_LAYOUTS most recently used layouts.
+     */
+    private static final class LayoutCache<V> extends LinkedHashMap<Integer, V> {
+
+        LayoutCache() {
+            super(MAX_LAYOUTS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+            return size() > MAX_LAYOUTS;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The number of rows of each line at one width, with a Fenwick tree over
+     * them. The arrays have room to grow, so that appending lines to the
+     * document only updates the tree for the new lines.
+     */
+    private final class Layout {
+
+        Layout(int width) {
+            this.width = width;
+            this.rows = new int[0];
+            this.tree = new int[1];
+        }
+
+        /**
+         * Moves to another width, keeping the counts as estimates. A line
+         * that fits in one row usually still does within the same bucket,
+         * and the others are broken again when they are painted.
+         */
+        void setWidth(int w) {
+            width = w;
+        }
+
+        /**
+         * Replaces the counts of removed lines at index with estimates for
+         * added lines. Only the part of the tree from index on is updated.
+         */
+        void replace(int index, int removed, int added) {
+            if (removed == added) {
+                for (int i = 0; i < added; i++) {
+                    setRows(index + i, estimateRows(index + i, width));
+                }
+                return;
+            }
+            int count = size - removed + added;
+            if (count > rows.length) {
+                int capacity = Math.max(count, rows.length * 2);
+                rows = Arrays.copyOf(rows, capacity);
+                tree = Arrays.copyOf(tree, capacity + 1);
+            }
+            System.arraycopy(rows, index + removed, rows, index + added, size - index - removed);
+            size = count;
+            for (int i = 0; i < added; i++) {
+                rows[index + i] = estimateRows(index + i, width);
+            }
+            rebuildFrom(index);
+        }
+
+        /**
+         * Rebuilds the nodes of the tree after a line. The nodes before it
+         * only sum lines before it, so they are still right.
+         */
+        private void rebuildFrom(int paragraph) {
+            for (int i = paragraph + 1; i <= size; i++) {
+                int sum = rows[i - 1];
+                for (int child = 1; child < (i & -i); child <<= 1) {
+                    sum += tree[i - child];
+                }
+                tree[i] = sum;
+            }
+            total = rowOf(size);
+        }
+
+        /**
+         * Records the number of rows of a line.
+         */
+        void setRows(int paragraph, int count) {
+            int delta = count - rows[paragraph];
+            rows[paragraph] = count;
+            if (delta != 0) {
+                for (int i = paragraph + 1; i <= size; i += i & -i) {
+                    tree[i] += delta;
+                }
+                total += delta;
+            }
+        }
+
+        /**
+         * @return The index of the first row of a line.
+         */
+        int rowOf(int paragraph) {
+            int sum = 0;
+            for (int i = paragraph; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+
+        /**
+         * @return The line that contains a row, or the last line.
+         */
+        int paragraphAt(int rowIndex) {
+            int position = 0;
+            int remaining = rowIndex;
+            for (int step = Integer.highestOneBit(Math.max(1, size)); step > 0; step >>= 1) {
+                int next = position + step;
+                if (next <= size && tree[next] <= remaining) {
+                    position = next;
+                    remaining -= tree[next];
+                }
+            }
+            return Math.min(position, Math.max(0, size - 1));
+        }
+
+        int width;
+        /* Lines in use at the start of rows; the rest is room to grow. */
+        int size;
+        int[] rows;
+        int[] tree;
+        int total;
+    }
+
+    /* Row counts by width bucket, least recently used first. */
+    private final Map<Integer, Layout> layouts;
+    /* The text of the line being broken or painted. */
+    private final Segment segment;
+    private int segmentStart;
+    private int segmentEnd;
+    private int loadedEnd;
+    /* Part of segment, reused for each row. */
+    private final Segment row;
+    private Font font;
+    private FontMetrics metrics;
+    private int lineHeight = 1;
+    private int width;
+    private int tabBase;
+    /* Widths whose row counts are kept together. */
+    private static final int BUCKET_WIDTH = 32;
+    /* Number of widths whose row counts are kept. */
+    private static final int MAX_LAYOUTS = 4;
+    private static final int DEFAULT_WIDTH = 100;
+    private static final int DEFAULT_TAB_SIZE = 8;
+}
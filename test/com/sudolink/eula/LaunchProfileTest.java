@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs LaunchProfile under -XX:DumpLoadedClassList, as the cds target does,
+ * and checks the number of classes the accepted launch loads against
+ * launch.class.budget.
+ *
+ * @author Matthew MacGregor
+ */
+public class LaunchProfileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void acceptedLaunchStaysWithinBudget() throws IOException, InterruptedException {
+        // The class list needs JDK 10 or later.
+        assumeFalse(System.getProperty("java.specification.version").startsWith("1."));
+        Integer budget = Integer.getInteger("launch.class.budget");
+        assertNotNull("launch.class.budget isn't set", budget);
+        
+        // Launched from a jar as in the cds target, whose baseline includes
+        // the classes that read jars.
+        File jar = new File(folder.getRoot(), "eula.jar");
+        archive(LIBRARY.toPath(), jar);
+        File marker = new File(folder.getRoot(), "marker");
+        Path baseline = folder.getRoot().toPath().resolve("baseline.classlist");
+        Path launch = folder.getRoot().toPath().resolve("launch.classlist");
+        assertEquals(0, profile(jar, null, "prepare", marker));
+        assertEquals(0, profile(jar, baseline, "baseline", marker));
+        assertEquals(0, profile(jar, launch, "run", marker));
+        
+        Set<String> loaded = LaunchProfile.extraClasses(launch, baseline);
+        assertTrue(loaded.size() + " classes, budget " + budget + ": " + new TreeSet<>(loaded),
+                loaded.size() <= budget);
+    }
+
+    /**
+     * Runs LaunchProfile in a new JVM.
+     *
+     * @param jar The library.
+     * @param classList Where to write the loaded classes, or null.
+     * @return The exit status.
+     */
+    private static int profile(File jar, Path classList, String command, File marker)
+            throws IOException, InterruptedException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        ProcessBuilder builder = (classList != null)
+                ? new ProcessBuilder(java, "-XX:DumpLoadedClassList=" + classList)
+                : new ProcessBuilder(java);
+        builder.command().add("-cp");
+        builder.command().add(jar.getPath());
+        builder.command().add(LaunchProfile.class.getName());
+        builder.command().add(command);
+        builder.command().add(marker.getPath());
+        return builder.inheritIO().start().waitFor();
+    }
+
+    /**
+     * Packs the compiled library into a jar.
+     */
+    private static void archive(final Path classes, File jar) throws IOException {
+        try (final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            Files.walkFileTree(classes, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException {
+                    out.putNextEntry(new JarEntry(
+                            classes.relativize(file).toString().replace(File.separatorChar, '/')));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    /* The compiled library, not the tests. */
+    private static final File LIBRARY = library();
+
+    private static File library() {
+        try {
+            return new File(LaunchProfile.class.getProtectionDomain().getCodeSource()
+                    .getLocation().toURI());
+        } catch (URISyntaxException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads one license file through several Licenses, so that all but the first
+ * find its text in the LicenseCache, and checks that each of them still knows
+ * the digest of the text.
+ *
+ * @author Matthew MacGregor
+ */
+public class LicenseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void writeLicense() throws IOException {
+        LicenseCache.clear();
+        file = folder.getRoot().toPath().resolve("license.txt");
+        Files.write(file, TEXT);
+    }
+
+    @Test
+    public void aCachedTextKeepsItsDigest() throws IOException {
+        String expected = LicenseDigests.digest(new ByteArrayInputStream(TEXT));
+        long hits = LicenseCache.getHitCount();
+        
+        License first = new License("file", new FileLicenseSource(file), null);
+        assertEquals(new String(TEXT, StandardCharsets.UTF_8), first.read());
+        assertEquals(expected, first.getDigest());
+        
+        License second = new License("file", new FileLicenseSource(file), null);
+        assertNull(second.getDigest());
+        assertEquals(new String(TEXT, StandardCharsets.UTF_8), second.read());
+        assertEquals(hits + 1, LicenseCache.getHitCount());
+        assertEquals(expected, second.getDigest());
+        
+        License third = new License("file", new FileLicenseSource(file), null);
+        StringBuilder text = new StringBuilder();
+        assertTrue(third.read(text, false));
+        assertEquals(hits + 2, LicenseCache.getHitCount());
+        assertEquals(expected, third.getDigest());
+    }
+
+    @Test
+    public void aTextCachedWithoutItsDigestIsReadAgain() throws IOException {
+        String expected = LicenseDigests.digest(new ByteArrayInputStream(TEXT));
+        
+        // Given its digest, the first License has no need to compute one.
+        new License("file", new FileLicenseSource(file), "0123").read();
+        
+        License second = new License("file", new FileLicenseSource(file), null);
+        second.read();
+        assertEquals(expected, second.getDigest());
+        
+        License third = new License("file", new FileLicenseSource(file), null);
+        third.read();
+        assertEquals(expected, third.getDigest());
+    }
+
+    private static final byte[] TEXT = "Permission is hereby granted.\n".getBytes(StandardCharsets.UTF_8);
+
+    private Path file;
+}
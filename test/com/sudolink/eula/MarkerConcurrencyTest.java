@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Starts several JVMs that commit disjoint keys to the same marker at the
+ * same time, and checks that no process loses another one's keys. Within one
+ * process, checks what readers see of keys that haven't been committed yet.
+ *
+ * @author Matthew MacGregor
+ */
+public class MarkerConcurrencyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void processesKeepEachOthersKeys() throws IOException, InterruptedException {
+        File file = new File(folder.getRoot(), "marker");
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        
+        List<Process> processes = new ArrayList<>();
+        for (int p = 0; p < PROCESS_COUNT; p++) {
+            processes.add(new ProcessBuilder(java,
+                    "-cp", System.getProperty("java.class.path"),
+                    MarkerConcurrencyTest.class.getName(),
+                    file.getPath(), "process" + p + ".", Integer.toString(KEY_COUNT))
+                    .inheritIO()
+                    .start());
+        }
+        for (Process process : processes) {
+            assertEquals(0, process.waitFor());
+        }
+        
+        Marker marker = new Marker(file.getPath());
+        for (int p = 0; p < PROCESS_COUNT; p++) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                String key = "process" + p + "." + i;
+                assertTrue(key, marker.isEulaAccepted(key));
+            }
+        }
+    }
+
+    @Test
+    public void readersSeeUncommittedKeysOverTheCommittedOnes() {
+        Marker marker = new Marker(new File(folder.getRoot(), "marker").getPath());
+        marker.put("committed", "digest1");
+        marker.put("revoked", "digest2");
+        assertTrue(marker.commit());
+        
+        marker.put("new");
+        marker.revoke("revoked");
+        marker.put("committed", "digest3");
+        assertTrue(marker.isEulaAccepted("new"));
+        assertFalse(marker.isEulaAccepted("revoked"));
+        assertEquals("digest3", marker.getDigest("committed"));
+        
+        // Put again after the revocation, the old digest doesn't come back.
+        marker.put("revoked", 7);
+        assertEquals(7, marker.get("revoked"));
+        assertNull(marker.getDigest("revoked"));
+        
+        assertTrue(marker.commit());
+        Marker reread = new Marker(marker.getPath());
+        assertTrue(reread.isEulaAccepted("new"));
+        assertEquals(7, reread.get("revoked"));
+        assertNull(reread.getDigest("revoked"));
+        assertEquals("digest3", reread.getDigest("committed"));
+    }
+
+    /**
+     * Commits the keys prefix0 to prefix(count - 1) one at a time.
+     *
+     * @param args The marker path, the key prefix and the number of keys.
+     */
+    public static void main(String[] args) {
+        Marker marker = new Marker(args[0]);
+        int count = Integer.parseInt(args[2]);
+        for (int i = 0; i < count; i++) {
+            marker.put(args[1] + i);
+            if (marker.commit() == false) {
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static final int PROCESS_COUNT = 4;
+    private static final int KEY_COUNT = 25;
+}
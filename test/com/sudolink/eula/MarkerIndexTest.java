@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Opens journals whose header is missing, torn or wrong, and appends keys
+ * too long for a record.
+ *
+ * @author Matthew MacGregor
+ */
+public class MarkerIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void writeHeader() throws IOException {
+        path = new File(folder.getRoot(), "marker").getPath();
+        log = new File(path + MarkerIndex.LOG_SUFFIX);
+        // The first append writes the header, and there's nothing after it.
+        new MarkerIndex(path).append(Collections.<String, Integer>emptyMap(),
+                Collections.<String, String>emptyMap(), Collections.<String>emptyList(), 0);
+        header = Files.readAllBytes(log.toPath());
+    }
+
+    @Test
+    public void tornHeaderIsAnEmptyJournal() throws IOException {
+        for (int length = 1; length < header.length; length++) {
+            Files.write(log.toPath(), Arrays.copyOf(header, length));
+            
+            MarkerIndex index = new MarkerIndex(path);
+            assertEquals("header of " + length, 0, index.view().logLength);
+            assertNull(index.view().value(KEY));
+            
+            index.append(Collections.singletonMap(KEY, VALUE),
+                    Collections.<String, String>emptyMap(), Collections.<String>emptyList(), 0);
+            assertEquals("header of " + length, Integer.valueOf(VALUE),
+                    new MarkerIndex(path).view().value(KEY));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongMagicIsAnError() throws IOException {
+        byte[] wrong = header.clone();
+        wrong[0] ^= 0xFF;
+        Files.write(log.toPath(), wrong);
+        new MarkerIndex(path).view();
+    }
+
+    @Test
+    public void oversizeKeyIsRefusedAndNothingIsWritten() throws IOException {
+        char[] chars = new char[0x10000];
+        Arrays.fill(chars, 'k');
+        String longKey = new String(chars);
+        MarkerIndex index = new MarkerIndex(path);
+        try {
+            index.append(Collections.singletonMap(longKey, VALUE),
+                    Collections.<String, String>emptyMap(), Collections.<String>emptyList(), 0);
+            fail("A key of " + chars.length + " bytes was written");
+        } catch (UTFDataFormatException ex) {
+            // Expected.
+        }
+        try {
+            index.append(Collections.singletonMap(KEY, VALUE),
+                    Collections.singletonMap(KEY, longKey), Collections.<String>emptyList(), 0);
+            fail("A digest of " + chars.length + " bytes was written");
+        } catch (UTFDataFormatException ex) {
+            // Expected.
+        }
+        assertArrayEquals(header, Files.readAllBytes(log.toPath()));
+        
+        // Through the Marker, the commit fails and the journal stays readable.
+        Marker marker = new Marker(path);
+        marker.setIndexed(true);
+        marker.put(KEY);
+        marker.put(longKey);
+        assertFalse(marker.commit());
+        assertNull(new MarkerIndex(path).view().value(KEY));
+        
+        // The longest key that fits is kept whole.
+        String longest = longKey.substring(1);
+        index.append(Collections.singletonMap(longest, VALUE),
+                Collections.<String, String>emptyMap(), Collections.<String>emptyList(), 0);
+        assertEquals(Integer.valueOf(VALUE), new MarkerIndex(path).view().value(longest));
+    }
+
+    private static final String KEY = "license.0";
+    private static final int VALUE = 1;
+
+    private String path;
+    private File log;
+    private byte[] header;
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Damages a committed marker file in every way a crash or a bad disk might,
+ * and checks that a new Marker gets the acceptances back from the backup copy.
+ *
+ * @author Matthew MacGregor
+ */
+public class MarkerRecoveryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void commitMarker() throws IOException {
+        file = new File(folder.getRoot(), "marker");
+        backup = new File(folder.getRoot(), "marker.bak");
+        Marker marker = new Marker(file.getPath());
+        for (int i = 0; i < KEY_COUNT; i++) {
+            // Every other key has a digest, so both kinds of entry are damaged.
+            marker.put(KEY_PREFIX + i, i % 2 == 0 ? "digest" + i : null);
+        }
+        assertTrue(marker.commit());
+        committed = Files.readAllBytes(file.toPath());
+        assertArrayEquals(committed,
+                Files.readAllBytes(backup.toPath()));
+    }
+
+    @Test
+    public void truncatedAtEveryOffsetIsRestored() throws IOException {
+        for (int length = 0; length < committed.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(committed, length));
+            assertEquals("truncated to " + length, KEY_COUNT, acceptedCount());
+            assertArrayEquals("truncated to " + length, committed,
+                    Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void trailingBytesAreRestored() throws IOException {
+        byte[] longer = Arrays.copyOf(committed, committed.length + 3);
+        Files.write(file.toPath(), longer);
+        assertEquals(KEY_COUNT, acceptedCount());
+        assertArrayEquals(committed, Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * The format has no checksum, so a byte that changes a key or a value in
+     * place can't be told apart from a real entry. Any other damage must be
+     * caught, so a single bad byte never costs more than the entry it is in.
+     */
+    @Test
+    public void corruptedByteCostsAtMostOneKey() throws IOException {
+        for (int offset = 0; offset < committed.length; offset++) {
+            for (int mask : MASKS) {
+                byte[] corrupted = committed.clone();
+                corrupted[offset] ^= mask;
+                Files.write(file.toPath(), corrupted);
+                int accepted = acceptedCount();
+                assertTrue("byte " + offset + " ^ " + mask + " left " + accepted,
+                        accepted >= KEY_COUNT - 1);
+            }
+        }
+    }
+
+    @Test
+    public void damagedWithoutBackupReadsNothing() throws IOException {
+        Files.delete(backup.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(committed, committed.length / 2));
+        assertEquals(0, acceptedCount());
+        assertFalse(new Marker(file.getPath()).reload());
+    }
+
+    @Test
+    public void commitWithNothingToWriteLeavesFileAlone() throws IOException {
+        File absent = new File(folder.getRoot(), "absent");
+        assertTrue(new Marker(absent.getPath()).commit());
+        assertFalse(absent.exists());
+        
+        Marker marker = new Marker(file.getPath());
+        assertTrue(marker.isEulaAccepted(KEY_PREFIX + 0));
+        assertTrue(file.setLastModified(0));
+        assertTrue(marker.commit());
+        assertEquals(0, file.lastModified());
+    }
+
+    /**
+     * Reads the marker with a new Marker, as the next launch would.
+     */
+    private int acceptedCount() {
+        Marker marker = new Marker(file.getPath());
+        int accepted = 0;
+        for (int i = 0; i < KEY_COUNT; i++) {
+            if (marker.isEulaAccepted(KEY_PREFIX + i)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    private static final int KEY_COUNT = 4;
+    private static final String KEY_PREFIX = "license.";
+    /* Bit flips applied at each offset: lowest bit, all bits. */
+    private static final int[] MASKS = {0x01, 0xFF};
+
+    private File file;
+    private File backup;
+    private byte[] committed;
+}
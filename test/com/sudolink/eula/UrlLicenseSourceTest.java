@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Serves a license from a local HTTP server and follows it through a
+ * download, a revalidation, its removal from the server and the server going
+ * away.
+ *
+ * @author Matthew MacGregor
+ */
+public class UrlLicenseSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+                requests.add((validator != null) ? validator : "");
+                int status = isServed ? 200 : 404;
+                if (isServed && ETAG.equals(validator)) {
+                    status = 304;
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                if (status == 200) {
+                    exchange.sendResponseHeaders(status, TEXT.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(TEXT);
+                    }
+                } else {
+                    exchange.sendResponseHeaders(status, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        url = new URL("http", "127.0.0.1", server.getAddress().getPort(), PATH);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsRevalidatesAndDropsTheLicense() throws IOException {
+        UrlLicenseSource source = new UrlLicenseSource(url, folder.getRoot().toPath());
+        assertFalse(source.exists());
+        assertTrue("exists() contacted the server", requests.isEmpty());
+        
+        assertEquals(TEXT.length, read(source).length);
+        assertEquals(Collections.singletonList(""), requests);
+        assertTrue(source.exists());
+        
+        // The cached copy is revalidated with its ETag and kept.
+        assertEquals(TEXT.length, read(source).length);
+        assertEquals(ETAG, requests.get(1));
+        assertTrue(source.exists());
+        
+        // Withdrawn from the server: the cached copy goes too.
+        isServed = false;
+        assertNull(source.open());
+        assertFalse(source.exists());
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void usesTheCachedCopyOffline() throws IOException {
+        UrlLicenseSource source = new UrlLicenseSource(url, folder.getRoot().toPath());
+        read(source);
+        server.stop(0);
+        
+        assertEquals(TEXT.length, read(source).length);
+        assertTrue(source.exists());
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void pinsTheDigestOfTheTextThatWasRead() throws IOException {
+        License license = new License("url", new UrlLicenseSource(url, folder.getRoot().toPath()), null);
+        assertNull(license.getDigest());
+        
+        license.read();
+        assertEquals(LicenseDigests.digest(new ByteArrayInputStream(TEXT)), license.getDigest());
+    }
+
+    @Test
+    public void verifyDownloadsALicenseThatWasNeverShown() throws IOException {
+        UrlLicenseSource source = new UrlLicenseSource(url, folder.getRoot().toPath());
+        License license = new License("url", source, null);
+        assertFalse(source.exists());
+        
+        assertTrue(license.verify(false));
+        assertEquals(1, requests.size());
+        assertTrue(source.exists());
+        assertEquals(LicenseDigests.digest(new ByteArrayInputStream(TEXT)), license.getDigest());
+        
+        isServed = false;
+        assertFalse(new License("url", source, null).verify(false));
+    }
+
+    private static byte[] read(LicenseSource source) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final String PATH = "/license.txt";
+    private static final String ETAG = "\"v1\"";
+    private static final byte[] TEXT = "Permission is hereby granted.\n".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+    private URL url;
+    private volatile boolean isServed = true;
+    /* The If-None-Match header of each request, empty if there was none. */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+}
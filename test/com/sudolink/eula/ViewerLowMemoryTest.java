@@ -0,0 +1,308 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sudolink.eula;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.swing.AbstractButton;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JTextArea;
+import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Shows a large license in a real Viewer, in a JVM with the heap of a small
+ * launcher, and accepts it. In low-memory mode (see Viewer.Config.LOW_MEMORY)
+ * the license must fit, and its text must be released once it has been
+ * accepted even though the Viewer is still referenced. Without low-memory
+ * mode the same license runs out of memory, which shows that the heap is
+ * small enough for the test to mean something.
+ *
+ * The Viewer is a frame, so those tests are skipped without a display. The
+ * budget is also checked headless, through the BatchReviewPanel, which loads
+ * a license into a ChunkedDocument in the same chunks as the Viewer. There
+ * the license must fit, and collapsing it must release more than its size,
+ * which also shows that it was held while expanded. The panel doesn't index
+ * the text for search, so it fits without low-memory mode as well.
+ *
+ * @author Matthew MacGregor
+ */
+public class ViewerLowMemoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void writeLicense() throws IOException {
+        license = folder.getRoot().toPath().resolve("license.txt");
+        try (Writer out = Files.newBufferedWriter(license, StandardCharsets.UTF_8)) {
+            for (int written = 0, line = 0; written < SIZE; line++) {
+                String text = "Section " + line + ". " + LINE;
+                out.write(text);
+                written += text.length();
+            }
+        }
+    }
+
+    @Test
+    public void lowMemoryFitsAndReleasesTheText() throws IOException, InterruptedException {
+        assumeFalse("The Viewer needs a display", GraphicsEnvironment.isHeadless());
+        assertEquals(0, show(true, VIEWER));
+    }
+
+    @Test
+    public void defaultModeDoesNotFit() throws IOException, InterruptedException {
+        assumeFalse("The Viewer needs a display", GraphicsEnvironment.isHeadless());
+        assertEquals(OUT_OF_MEMORY, show(false, VIEWER));
+    }
+
+    @Test
+    public void lowMemoryPanelFitsAndReleasesTheText() throws IOException, InterruptedException {
+        assertEquals(0, show(true, PANEL));
+    }
+
+    /**
+     * Runs main() in a new JVM with the small heap. The panel is always shown
+     * headless, so that it's checked the same way with or without a display.
+     *
+     * @param view VIEWER or PANEL.
+     * @return The exit status.
+     */
+    private int show(boolean isLowMemory, String view) throws IOException, InterruptedException {
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        return new ProcessBuilder(java, HEAP, "-XX:+ExitOnOutOfMemoryError",
+                "-Djava.awt.headless=" + view.equals(PANEL),
+                "-cp", System.getProperty("java.class.path"),
+                ViewerLowMemoryTest.class.getName(),
+                new File(folder.getRoot(), "marker").getPath(), license.toString(),
+                Boolean.toString(isLowMemory), view)
+                .inheritIO()
+                .start()
+                .waitFor();
+    }
+
+    /**
+     * Shows the license in the Viewer or in a BatchReviewPanel.
+     *
+     * @param args The marker path, the license path, whether to turn on
+     * low-memory mode, and VIEWER or PANEL.
+     */
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        if (args[3].equals(PANEL)) {
+            expandAndCollapse(Paths.get(args[1]), Boolean.parseBoolean(args[2]));
+        } else {
+            showAndAccept(args[0], Paths.get(args[1]), Boolean.parseBoolean(args[2]));
+        }
+    }
+
+    /**
+     * Shows the license, waits until all of it has been loaded, then ticks
+     * the checkbox and clicks Accept as a user would.
+     */
+    private static void showAndAccept(String marker, Path license, boolean isLowMemory)
+            throws InterruptedException, InvocationTargetException {
+        final CountDownLatch launched = new CountDownLatch(1);
+        final boolean[] isAccepted = new boolean[1];
+        final Viewer viewer = new Viewer(marker, new Launchable() {
+            @Override
+            public void launchApplication(boolean isEulaAccepted, String[] args) {
+                isAccepted[0] = isEulaAccepted;
+                launched.countDown();
+            }
+        });
+        viewer.setConfiguration(Viewer.Config.LOW_MEMORY, isLowMemory);
+        viewer.addLicense(KEY, new FileLicenseSource(license));
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                viewer.start();
+            }
+        });
+
+        final JCheckBox agree = find(viewer.getContentPane(), JCheckBox.class, null);
+        final JButton accept = find(viewer.getContentPane(), JButton.class, "Accept");
+        final boolean[] isLoaded = new boolean[1];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (isLoaded[0] == false) {
+            if (System.nanoTime() > deadline) {
+                System.err.println("The license wasn't loaded in time");
+                System.exit(1);
+            }
+            Thread.sleep(50);
+            // The checkbox is enabled once the whole license has been shown.
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    isLoaded[0] = agree.isEnabled();
+                }
+            });
+        }
+        long shown = usedHeap();
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                agree.setSelected(true);
+                accept.doClick();
+            }
+        });
+        if (launched.await(TIMEOUT, TimeUnit.SECONDS) == false || isAccepted[0] == false) {
+            System.err.println("The license wasn't accepted");
+            System.exit(1);
+        }
+        // Still holding the Viewer, as a host may.
+        long released = shown - usedHeap();
+        System.out.println("Heap " + shown / MEGABYTE + " MB while shown, "
+                + released / MEGABYTE + " MB released after acceptance of " + viewer.getTitle());
+        System.exit((released > SIZE) ? 0 : 2);
+    }
+
+    /**
+     * Lists the license in a BatchReviewPanel without a frame, expands it,
+     * waits until all of it has been loaded, then collapses it again.
+     */
+    private static void expandAndCollapse(Path license, final boolean isLowMemory)
+            throws InterruptedException, InvocationTargetException {
+        final BatchReviewPanel[] panel = new BatchReviewPanel[1];
+        final License large = new License(KEY, new FileLicenseSource(license), null);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                panel[0] = new BatchReviewPanel(Collections.singletonList(large),
+                        MetricsListener.NONE, isLowMemory);
+            }
+        });
+        
+        final JToggleButton header = find(panel[0], JToggleButton.class, null);
+        final JTextArea body = find(panel[0], JTextArea.class, null);
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                header.doClick();
+            }
+        });
+        final boolean[] isLoaded = new boolean[1];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (isLoaded[0] == false) {
+            if (System.nanoTime() > deadline) {
+                System.err.println("The license wasn't loaded in time");
+                System.exit(1);
+            }
+            Thread.sleep(50);
+            // The header loses its loading note once the text has been loaded.
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    isLoaded[0] = header.getText().endsWith(KEY);
+                }
+            });
+        }
+        if (body.getDocument().getLength() < SIZE) {
+            System.err.println("The license wasn't loaded");
+            System.exit(1);
+        }
+        long shown = usedHeap();
+
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                header.doClick();
+            }
+        });
+        // Still holding the panel, as the Viewer does.
+        long released = shown - usedHeap();
+        System.out.println("Heap " + shown / MEGABYTE + " MB while expanded, "
+                + released / MEGABYTE + " MB released after collapsing " + KEY);
+        System.exit((released > SIZE) ? 0 : 2);
+    }
+
+    private static <T extends Component> T find(Container container, Class<T> type, String text) {
+        for (Component component : container.getComponents()) {
+            if (type.isInstance(component) && (text == null
+                    || text.equals(((AbstractButton) component).getText()))) {
+                return type.cast(component);
+            }
+            if (component instanceof Container) {
+                T found = find((Container) component, type, text);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The heap in use after a collection.
+     */
+    private static long usedHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static final String VIEWER = "viewer";
+    private static final String PANEL = "panel";
+    private static final String KEY = "large";
+    /* The heap of a small launcher. */
+    private static final String HEAP = "-Xmx64m";
+    /* Number of chars in the license, 16 MB as the document holds them. */
+    private static final int SIZE = 8 * 1024 * 1024;
+    /* Exit status of -XX:+ExitOnOutOfMemoryError. */
+    private static final int OUT_OF_MEMORY = 3;
+    private static final int TIMEOUT = 120;
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final String LINE =
+            "THE SOFTWARE IS PROVIDED \"AS IS\", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR\n";
+
+    private Path license;
+}
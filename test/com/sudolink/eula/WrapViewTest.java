@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 Matthew MacGregor.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.sudolink.eula;
+
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.Random;
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.PlainDocument;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Lays out one document in a text area with WrapView and in one with Swing's
+ * WrappedPlainView, and checks that the rows of each offset and the offsets of
+ * each row agree after edits and width changes. After an edit only the lines
+ * it touched are broken again, so the row counts of the other lines must have
+ * been carried over by the view's Fenwick tree.
+ *
+ * Lines are compared from the last to the first, because looking up a line in
+ * WrapView fixes its count, which would hide a wrong count for later lines.
+ *
+ * @author Matthew MacGregor
+ */
+public class WrapViewTest {
+
+    @Before
+    public void createAreas() throws BadLocationException {
+        document = new PlainDocument();
+        document.insertString(0, paragraphs(new Random(SEED), LINES), null);
+        reference = createArea(document);
+        area = createArea(document);
+        WrapView.install(area);
+        assertTrue(area.getUI() instanceof WrapView.UI);
+        setWidth(WIDTH);
+    }
+
+    @Test
+    public void rowsMatchWrappedPlainView() throws BadLocationException {
+        breakAllLines();
+        assertSameLayout();
+    }
+
+    @Test
+    public void editsOnlyChangeTheLinesTheyTouch() throws BadLocationException {
+        Random random = new Random(SEED + 1);
+        breakAllLines();
+        
+        // Lines inserted in the middle of the document.
+        insert(document.getLength() / 2, "\n" + paragraphs(random, 5));
+        assertSameLayout();
+        
+        // Lines removed, joining the lines at either end.
+        int start = area.getLineStartOffset(LINES / 4) + 3;
+        remove(start, area.getLineStartOffset(LINES / 4 + 7) + 5 - start);
+        assertSameLayout();
+        
+        // Words typed into a line without adding lines.
+        insert(area.getLineStartOffset(LINES / 3) + 1, "typed into a line ");
+        assertSameLayout();
+        
+        // Chunks appended as a license loads, ending inside a line.
+        for (int i = 0; i < 10; i++) {
+            String chunk = paragraphs(random, 20);
+            insert(document.getLength(), chunk.substring(0, chunk.length() - 7));
+            assertSameLayout();
+        }
+        
+        // Everything removed, then loaded again.
+        remove(0, document.getLength());
+        assertSameLayout();
+        insert(0, paragraphs(random, LINES));
+        assertSameLayout();
+    }
+
+    @Test
+    public void widthChangesKeepTheTreeConsistent() throws BadLocationException {
+        breakAllLines();
+        assertSameLayout();
+        
+        setWidth(WIDTH + 5 * BUCKET_WIDTH);
+        breakAllLines();
+        assertSameLayout();
+        
+        // The counts of the first width were kept, so nothing is broken again.
+        setWidth(WIDTH);
+        assertSameLayout();
+        
+        // Within the bucket the counts are estimates until lines are broken.
+        setWidth(WIDTH - 9);
+        breakAllLines();
+        assertSameLayout();
+        
+        insert(area.getLineStartOffset(10), paragraphs(new Random(SEED + 2), 3));
+        setWidth(WIDTH + 5 * BUCKET_WIDTH);
+        breakAllLines();
+        assertSameLayout();
+    }
+
+    private static JTextArea createArea(Document document) {
+        JTextArea area = new JTextArea(document);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        area.setLineWrap(true);
+        area.setWrapStyleWord(true);
+        return area;
+    }
+
+    private void setWidth(int width) {
+        reference.setSize(width, HEIGHT);
+        area.setSize(width, HEIGHT);
+    }
+
+    /**
+     * Inserts text and breaks the lines it touched.
+     */
+    private void insert(int offset, String text) throws BadLocationException {
+        document.insertString(offset, text, null);
+        breakLines(offset, offset + text.length());
+    }
+
+    /**
+     * Removes text and breaks the line it was removed from.
+     */
+    private void remove(int offset, int length) throws BadLocationException {
+        document.remove(offset, length);
+        breakLines(offset, offset);
+    }
+
+    private void breakAllLines() throws BadLocationException {
+        breakLines(0, document.getLength());
+    }
+
+    /**
+     * Looks up each line from start to end in WrapView, which breaks it. An
+     * edit at the start of a line also replaces the line before it in a
+     * PlainDocument, so that line is included.
+     */
+    private void breakLines(int start, int end) throws BadLocationException {
+        int first = area.getLineOfOffset(Math.max(0, start - 1));
+        for (int line = area.getLineOfOffset(end); line >= first; line--) {
+            area.modelToView(area.getLineStartOffset(line));
+        }
+    }
+
+    private void assertSameLayout() throws BadLocationException {
+        int height = reference.getPreferredSize().height;
+        assertEquals("height", height, area.getPreferredSize().height);
+        
+        int lineHeight = area.getFontMetrics(area.getFont()).getHeight();
+        // Only the starts of rows are compared, since whether WrappedPlainView
+        // rounds to the nearest offset within a row depends on the JDK.
+        for (int y = height - lineHeight / 2; y >= 0; y -= lineHeight) {
+            Point p = new Point(0, y);
+            assertEquals("offset at " + p, reference.viewToModel(p), area.viewToModel(p));
+        }
+        for (int offset = document.getLength(); offset >= 0; offset--) {
+            Rectangle expected = reference.modelToView(offset);
+            Rectangle actual = area.modelToView(offset);
+            assertEquals("row of " + offset, expected.y, actual.y);
+            assertEquals("x of " + offset, expected.x, actual.x);
+        }
+    }
+
+    /**
+     * @return Lines of random words, mostly a few rows long, with some empty
+     * lines and some words too long to fit in a row.
+     */
+    private static String paragraphs(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; line < count; line++) {
+            int words = random.nextInt(5) == 0 ? 0 : random.nextInt(80);
+            for (int word = 0; word < words; word++) {
+                int length = random.nextInt(30) == 0 ? 70 : 1 + random.nextInt(10);
+                for (int i = 0; i < length; i++) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+                text.append(random.nextInt(10) == 0 ? '\t' : ' ');
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    private Document document;
+    private JTextArea reference;
+    private JTextArea area;
+    private static final long SEED = 20141017;
+    private static final int LINES = 120;
+    private static final int WIDTH = 300;
+    /* Taller than the text, so that every row is inside the allocation. */
+    private static final int HEIGHT = 1 << 20;
+    /* WrapView.BUCKET_WIDTH */
+    private static final int BUCKET_WIDTH = 32;
+}